@@ -0,0 +1,132 @@
+package dendron;
+
+import dendron.machine.Machine;
+import dendron.tree.ParseTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The programs the benchmarks run.
+ * <p>
+ * A program is named either after a file of the project's corpora,
+ * such as "asgn-big-var-expr" for source/asgn-big-var-expr.txt and
+ * assy/asgn-big-var-expr.denm, or "synthetic-N" for a generated program
+ * of N statements. The corpora are looked for under the directory in
+ * the system property dendron.root, which is the current directory if
+ * it is not set.
+ *
+ * @author Pedro Breton
+ */
+public final class Corpus {
+
+    private static final String SYNTHETIC = "synthetic-";
+
+    /**
+     * The statements a synthetic program cycles through. Between them
+     * they use every operator, and both variable and constant operands.
+     */
+    private static final String[] STATEMENTS = {
+            ":= a + b 3",
+            ":= b - * a 2 b",
+            ":= c / + a b 7",
+            ":= d _ - c # * 4 9",
+            "@ + * c 3 / d 5",
+            ":= b - 1 + b a",
+    };
+
+    /**
+     * Do not instantiate this class.
+     */
+    private Corpus() {
+    }
+
+    /**
+     * Get the tokens of a program.
+     *
+     * @param name the program's name
+     * @return its tokens
+     */
+    public static List<String> tokens(String name) {
+        if (name.startsWith(SYNTHETIC)) {
+            List<String> tokens = new ArrayList<>(Arrays.asList(":= a 1 := b 2".split(" ")));
+            int size = Integer.parseInt(name.substring(SYNTHETIC.length()));
+            for (int i = 0; i < size; ++i) {
+                tokens.addAll(Arrays.asList(STATEMENTS[i % STATEMENTS.length].split(" ")));
+            }
+            return tokens;
+        }
+        try {
+            String text = new String(Files.readAllBytes(file("source", name + ".txt")), StandardCharsets.UTF_8);
+            return new ArrayList<>(Arrays.asList(text.trim().split("\\s+")));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Get a file holding a program's source. A synthetic program is
+     * written one statement to a line to a temporary file that is
+     * deleted when the JVM exits.
+     *
+     * @param name the program's name
+     * @return the source file
+     */
+    public static Path source(String name) {
+        if (!name.startsWith(SYNTHETIC)) {
+            return file("source", name + ".txt");
+        }
+        StringBuilder text = new StringBuilder(":= a 1\n:= b 2\n");
+        int size = Integer.parseInt(name.substring(SYNTHETIC.length()));
+        for (int i = 0; i < size; ++i) {
+            text.append(STATEMENTS[i % STATEMENTS.length]).append('\n');
+        }
+        return temporary(".den", text);
+    }
+
+    /**
+     * Get a file holding a program's Machine assembly code. A synthetic
+     * program is compiled, and written to a temporary file that is
+     * deleted when the JVM exits.
+     *
+     * @param name the program's name
+     * @return the assembly file
+     */
+    public static Path assembly(String name) {
+        if (!name.startsWith(SYNTHETIC)) {
+            return file("assy", name + ".denm");
+        }
+        StringBuilder text = new StringBuilder();
+        for (Machine.Instruction instr : new ParseTree(tokens(name)).compile()) {
+            text.append(instr).append('\n');
+        }
+        return temporary(".denm", text);
+    }
+
+    private static Path temporary(String extension, CharSequence text) {
+        try {
+            Path file = Files.createTempFile("dendron", extension);
+            file.toFile().deleteOnExit();
+            Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+            return file;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private static Path file(String directory, String name) {
+        Path file = Paths.get(System.getProperty("dendron.root", "."), directory, name);
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("no such program: " + file.toAbsolutePath()
+                    + " (set -Ddendron.root to the project directory)");
+        }
+        return file;
+    }
+}
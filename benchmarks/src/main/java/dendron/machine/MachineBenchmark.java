@@ -0,0 +1,91 @@
+package dendron.machine;
+
+import dendron.Corpus;
+import dendron.OutputSink;
+import dendron.jvm.BytecodeCompiler;
+import dendron.jvm.JvmProgram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The back end, one stage at a time: assembling a file of Machine code,
+ * with {@link InstructionReader#assemble(String)} into instructions and
+ * with {@link FastAssembler} into {@link Bytecode}, and running the
+ * program on a {@link Machine} as a list of instructions, which is
+ * resolved on every run, as {@link Bytecode}, and compiled to JVM
+ * bytecode by the {@link BytecodeCompiler}. What the program prints is
+ * thrown away unformatted, so only the running is measured.
+ *
+ * @author Pedro Breton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MachineBenchmark {
+
+    /**
+     * The program to use; see {@link Corpus}
+     */
+    @Param({"asgn-big-var-expr", "print-big-var-expr", "test1", "synthetic-100", "synthetic-10000"})
+    public String program;
+
+    private Path file;
+    private List<Machine.Instruction> code;
+    private Bytecode bytecode;
+    private JvmProgram jvmCode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.file = Corpus.assembly(this.program);
+        this.code = InstructionReader.assemble(this.file.toString());
+        this.bytecode = FastAssembler.assemble(this.file);
+        this.jvmCode = BytecodeCompiler.compile(this.code);
+    }
+
+    @Benchmark
+    public List<Machine.Instruction> assemble() {
+        return InstructionReader.assemble(this.file.toString());
+    }
+
+    @Benchmark
+    public Bytecode assembleFast() throws IOException {
+        return FastAssembler.assemble(this.file);
+    }
+
+    @Benchmark
+    public Machine execute() {
+        Machine machine = new Machine(OutputSink.DISCARD);
+        machine.run(this.code);
+        return machine;
+    }
+
+    @Benchmark
+    public Machine executeBytecode() {
+        Machine machine = new Machine(OutputSink.DISCARD);
+        machine.run(this.bytecode);
+        return machine;
+    }
+
+    @Benchmark
+    public int[] executeJvm() {
+        return this.jvmCode.run(OutputSink.DISCARD);
+    }
+}
@@ -0,0 +1,108 @@
+package dendron.tree;
+
+import dendron.Corpus;
+import dendron.ExecutionResult;
+import dendron.OutputBuffer;
+import dendron.OutputSink;
+import dendron.machine.RegisterMachine;
+import dendron.machine.RegisterProgram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The engines that run a parsed program without the stack Machine: the
+ * tree interpreter, walking the tree from start to end or running
+ * independent statements in parallel, the tree compiled to a
+ * {@link ClosureProgram}, and the {@link RegisterMachine}. Every run
+ * starts from an empty symbol table, and what the program prints is
+ * thrown away unformatted, so only the running is measured. The
+ * programs are compiled before measuring starts, and the setup checks
+ * that every engine gives the interpreter's result.
+ *
+ * @author Pedro Breton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    /**
+     * The program to use; see {@link Corpus}
+     */
+    @Param({"asgn-big-var-expr", "print-big-var-expr", "synthetic-100", "synthetic-10000"})
+    public String program;
+
+    private Program tree;
+    private StatementGraph graph;
+    private ClosureProgram closures;
+    private RegisterProgram registers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ParseTree parseTree = new ParseTree(Corpus.tokens(this.program));
+        this.tree = parseTree.getProgram();
+        this.graph = parseTree.dependencyGraph();
+        this.closures = parseTree.compileClosures();
+        this.registers = parseTree.compileToRegisters();
+
+        ExecutionResult expected = parseTree.execute();
+        OutputBuffer output = new OutputBuffer();
+        Map<String, Integer> symTab = new HashMap<>();
+        this.graph.execute(symTab, ForkJoinPool.commonPool(), output);
+        check("parallel interpreter", expected, new ExecutionResult(output.toArray(), symTab));
+        output.clear();
+        symTab = this.closures.run(output);
+        check("closures", expected, new ExecutionResult(output.toArray(), symTab));
+        check("RegisterMachine", expected, parseTree.execute(ParseTree.Engine.REGISTER));
+    }
+
+    private static void check(String engine, ExecutionResult expected, ExecutionResult actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(engine + " gave " + actual + ", not " + expected);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Integer> interpret() {
+        Map<String, Integer> symTab = new HashMap<>();
+        this.tree.execute(symTab, OutputSink.DISCARD);
+        return symTab;
+    }
+
+    @Benchmark
+    public Map<String, Integer> interpretParallel() {
+        Map<String, Integer> symTab = new HashMap<>();
+        this.graph.execute(symTab, ForkJoinPool.commonPool(), OutputSink.DISCARD);
+        return symTab;
+    }
+
+    @Benchmark
+    public Map<String, Integer> closures() {
+        return this.closures.run(OutputSink.DISCARD);
+    }
+
+    @Benchmark
+    public RegisterMachine registers() {
+        RegisterMachine machine = new RegisterMachine(OutputSink.DISCARD);
+        machine.run(this.registers);
+        return machine;
+    }
+}
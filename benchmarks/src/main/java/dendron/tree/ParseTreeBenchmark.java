@@ -0,0 +1,85 @@
+package dendron.tree;
+
+import dendron.Corpus;
+import dendron.jvm.JvmProgram;
+import dendron.machine.Machine;
+import dendron.machine.RegisterProgram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The front end, one stage at a time: parsing tokens into a
+ * {@link ParseTree}, emitting the Machine instructions for it, the whole
+ * of {@link ParseTree#compile()}, which also binds variables to slots,
+ * and compiling the tree for each of the other engines. Running the
+ * compiled programs is measured by {@link InterpreterBenchmark} and
+ * {@link dendron.machine.MachineBenchmark}.
+ *
+ * @author Pedro Breton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseTreeBenchmark {
+
+    /**
+     * The program to use; see {@link Corpus}
+     */
+    @Param({"asgn-big-var-expr", "print-big-var-expr", "synthetic-100", "synthetic-10000"})
+    public String program;
+
+    private List<String> tokens;
+    private ParseTree tree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.tokens = Corpus.tokens(this.program);
+        this.tree = new ParseTree(this.tokens);
+    }
+
+    @Benchmark
+    public ParseTree parse() {
+        return new ParseTree(this.tokens);
+    }
+
+    @Benchmark
+    public List<Machine.Instruction> emit() {
+        return this.tree.getProgram().emit();
+    }
+
+    @Benchmark
+    public List<Machine.Instruction> compile() {
+        return this.tree.compile();
+    }
+
+    @Benchmark
+    public ClosureProgram compileClosures() {
+        return this.tree.compileClosures();
+    }
+
+    @Benchmark
+    public RegisterProgram compileToRegisters() {
+        return this.tree.compileToRegisters();
+    }
+
+    @Benchmark
+    public JvmProgram compileToJvm() {
+        return this.tree.compileToJvm();
+    }
+}
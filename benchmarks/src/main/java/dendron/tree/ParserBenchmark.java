@@ -0,0 +1,97 @@
+package dendron.tree;
+
+import dendron.Corpus;
+import dendron.Lexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a source file: from start to end through a {@link Lexer}, and
+ * with the {@link ParallelParser} on pools of each given size. The setup
+ * of each pool checks that both give the same program.
+ *
+ * @author Pedro Breton
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    /**
+     * The program to use; see {@link Corpus}
+     */
+    @Param({"synthetic-100000", "synthetic-1000000"})
+    public String program;
+
+    private Path file;
+
+    /**
+     * The threads the parallel parser runs on. Only the parallel
+     * benchmark uses them, so the sequential one is not repeated for
+     * each size.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        /**
+         * The number of threads
+         */
+        @Param({"1", "2", "4"})
+        public int threads;
+
+        private ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp(ParserBenchmark benchmark) throws IOException {
+            this.pool = new ForkJoinPool(this.threads);
+            Program expected = benchmark.sequential();
+            Program actual = benchmark.parallel(this);
+            if (actual.getActions().size() != expected.getActions().size()
+                    || !actual.getPositions().toString().equals(expected.getPositions().toString())
+                    || !actual.emit().toString().equals(expected.emit().toString())) {
+                throw new IllegalStateException("the parallel parser gave a different program");
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.pool.shutdown();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.file = Corpus.source(this.program);
+    }
+
+    @Benchmark
+    public Program sequential() throws IOException {
+        try (Lexer lexer = Lexer.open(this.file)) {
+            return new ParseTree(lexer).getProgram();
+        }
+    }
+
+    @Benchmark
+    public Program parallel(Pool pool) throws IOException {
+        return new ParseTree(this.file, pool.pool).getProgram();
+    }
+}
@@ -0,0 +1,67 @@
+package dendron;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A sink that writes each value as a 4-byte int, high byte first, the
+ * form {@link java.io.DataInputStream#readInt()} reads. Nothing is
+ * formatted, so it is the cheapest way to pass a program's output to
+ * another program. The bytes are buffered until the buffer is full or
+ * the sink is flushed.
+ *
+ * @author Pedro Breton
+ */
+public final class BinarySink implements OutputSink {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int size;
+
+    /**
+     * Create a sink that writes ints to a stream.
+     *
+     * @param out where the ints go; it is not closed by the sink
+     */
+    public BinarySink(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void accept(int value) {
+        if (this.size + 4 > this.buffer.length) {
+            drain();
+        }
+        this.buffer[this.size++] = (byte) (value >>> 24);
+        this.buffer[this.size++] = (byte) (value >>> 16);
+        this.buffer[this.size++] = (byte) (value >>> 8);
+        this.buffer[this.size++] = (byte) value;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            this.out.flush();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Write out the buffered bytes.
+     */
+    private void drain() {
+        if (this.size > 0) {
+            try {
+                this.out.write(this.buffer, 0, this.size);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            this.size = 0;
+        }
+    }
+}
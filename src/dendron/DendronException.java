@@ -0,0 +1,82 @@
+package dendron;
+
+/**
+ * An error in a Dendron program. The kind of error is one of the
+ * {@link Errors.Type} values; an optional piece of information and
+ * the place in the source where the problem was found may come with it.
+ * <p>
+ * Nothing in the parser, the tree interpreter or the Machine ends the
+ * JVM when a program goes wrong. They throw one of these instead, and
+ * only a command-line driver turns it into an exit status, through
+ * {@link Errors#abort(DendronException)}.
+ *
+ * @author Pedro Breton
+ */
+public class DendronException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Errors.Type type;
+    private final Object info;
+    private SourcePosition position;
+
+    /**
+     * Create an exception whose source position is not (yet) known.
+     *
+     * @param type the kind of error
+     * @param info if not null, an additional value describing the error
+     */
+    public DendronException(Errors.Type type, Object info) {
+        this(type, info, null);
+    }
+
+    /**
+     * Create an exception for a known source position.
+     *
+     * @param type     the kind of error
+     * @param info     if not null, an additional value describing the error
+     * @param position where the error was found, or null
+     */
+    public DendronException(Errors.Type type, Object info, SourcePosition position) {
+        super(type.getMessage() + (info == null ? "" : ": " + info));
+        this.type = type;
+        this.info = info;
+        this.position = position;
+    }
+
+    /**
+     * @return the kind of error
+     */
+    public Errors.Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @return the additional information given with the error, or null
+     */
+    public Object getInfo() {
+        return this.info;
+    }
+
+    /**
+     * @return where the error was found, or null if not known
+     */
+    public SourcePosition getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Attach a source position to an exception that was thrown without
+     * one, typically by code that does not know where it came from.
+     * A position that is already present is kept.
+     *
+     * @param where the position to record
+     * @return this exception
+     */
+    public DendronException locate(SourcePosition where) {
+        if (this.position == null) {
+            this.position = where;
+        }
+        return this;
+    }
+}
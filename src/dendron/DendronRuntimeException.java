@@ -0,0 +1,23 @@
+package dendron;
+
+/**
+ * An error found while running a Dendron program, either in the
+ * tree interpreter or on the Machine. When the tree interpreter
+ * reports one, the position is that of the statement that failed.
+ *
+ * @author Pedro Breton
+ */
+public class DendronRuntimeException extends DendronException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a run-time error whose position is not (yet) known.
+     *
+     * @param type the kind of error
+     * @param info if not null, an additional value describing the error
+     */
+    public DendronRuntimeException(Errors.Type type, Object info) {
+        super(type, info);
+    }
+}
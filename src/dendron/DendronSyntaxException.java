@@ -0,0 +1,23 @@
+package dendron;
+
+/**
+ * An error found while parsing a Dendron program or assembling
+ * Machine code, before anything has been run.
+ *
+ * @author Pedro Breton
+ */
+public class DendronSyntaxException extends DendronException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a syntax error.
+     *
+     * @param type     the kind of error
+     * @param info     if not null, an additional value describing the error
+     * @param position where the error was found, or null
+     */
+    public DendronSyntaxException(Errors.Type type, Object info, SourcePosition position) {
+        super(type, info, position);
+    }
+}
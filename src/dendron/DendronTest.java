@@ -1,6 +1,5 @@
 package dendron;
 
-import dendron.machine.Machine;
 import dendron.tree.ParseTree;
 
 import java.io.File;
@@ -60,6 +59,23 @@ public class DendronTest {
 
     public static int NUM_TESTS = programs.size();
 
+    /**
+     * Choose the engine that runs the compiled program, from the
+     * system property dendron.engine (stack, register or jvm).
+     * The stack Machine is the default.
+     */
+    private static ParseTree.Engine engine() {
+        String name = System.getProperty( "dendron.engine", "stack" );
+        try {
+            return ParseTree.Engine.valueOf( name.toUpperCase() );
+        }
+        catch ( IllegalArgumentException iae ) {
+            System.err.println( "Unknown engine: " + name );
+            System.exit( 2 );
+            return null;
+        }
+    }
+
     /**
      * Run a test on the Dendron programming system
      * @param args if numeric and the number is less than the number of
@@ -68,6 +84,9 @@ public class DendronTest {
      *             of a Dendron program and run tests on that program;
      *             if no arguments, read the source program from standard
      *             input.
+     *             If the system property dendron.profile is true, the
+     *             program is also run on the stack Machine under a
+     *             {@link dendron.machine.Profiler}, and the profile shown.
      */
     public static void main( String... args ) {
         List< String > tokenList;
@@ -134,16 +153,22 @@ public class DendronTest {
             tokenList = new LinkedList<>( Arrays.asList( args ) );
         }
 
-        ParseTree tree = new ParseTree( tokenList );
-
-        tree.displayProgram();
+        try {
+            ParseTree tree = new ParseTree( tokenList );
 
-        tree.interpret();
+            tree.displayProgram();
 
-        List< Machine.Instruction > program = tree.compile();
+            tree.interpret();
 
-        Machine.displayInstructions( program );
+            tree.run( engine() );
 
-        Machine.execute( program );
+            if ( Boolean.getBoolean( "dendron.profile" ) ) {
+                System.out.println( "\nProfile of the compiled code:" );
+                System.out.print( tree.profile( 1 ).report() );
+            }
+        }
+        catch ( DendronException de ) {
+            Errors.abort( de );
+        }
     }
 }
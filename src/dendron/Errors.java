@@ -26,38 +26,65 @@ public class Errors {
         DIVIDE_BY_ZERO("divide by zero"),
         ILLEGAL_VALUE("illegal value encountered in source"),
         UNINITIALIZED("uninitialized variable in expression"),
-        PREMATURE_END("premature end of statement");
+        PREMATURE_END("premature end of statement"),
+        UNKNOWN_STATEMENT("unknown statement type"),
+        EXTRA_TOKENS("extra tokens at end of statement");
 
         private final String message;
 
         Type(String message) {
             this.message = message;
         }
+
+        /**
+         * @return the text shown to the user for this kind of error
+         */
+        public String getMessage() {
+            return this.message;
+        }
     }
 
     /**
-     * Report an error and stop the program. All output goes to standard error.
+     * Report an error by throwing it. The caller's thread unwinds to
+     * whoever is running the program; nothing is printed here.
      *
-     * @param type The kind of error, printed first
-     * @param info if not null, an additional value to be printed after a colon
+     * @param type The kind of error
+     * @param info if not null, an additional value describing the error
+     * @throws DendronException always
      */
     public static void report(Type type, Object info) {
-        System.err.print(type.message);
-        if (info != null) {
-            System.err.print(": " + info);
+        throw new DendronException(type, info);
+    }
+
+    /**
+     * Show an error on standard error and stop the program with the
+     * {@link #DENDRON_ABORT} exit status. Only command-line drivers
+     * should call this.
+     *
+     * @param error the error that ended the Dendron program
+     */
+    public static void abort(DendronException error) {
+        System.err.print(error.getMessage());
+        if (error.getPosition() != null) {
+            System.err.print(" (at " + error.getPosition() + ")");
         }
         System.exit(DENDRON_ABORT);
     }
 
     /**
      * Show on standard output the values of all the variables in the table.
+     * Compiler temporaries (names starting with "$", see
+     * {@link dendron.tree.SharedExpression}) are not part of the program
+     * and are left out.
      *
      * @param table the program's symbol table
      */
     public static void dump(Map<String, Integer> table) {
         System.out.println("Symbol Table Contents\n=====================\n");
         for (String ident : table.keySet()) {
-            System.out.printf("%12s : %11d\n", ident, table.get(ident));
+            if (!ident.startsWith("$")) {
+                System.out.printf("%12s : %11d\n", ident, table.get(ident));
+            }
         }
     }
 }
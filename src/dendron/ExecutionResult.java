@@ -0,0 +1,79 @@
+package dendron;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a run of a Dendron program leaves behind, for a caller that runs
+ * programs itself rather than from the command line: the values the
+ * program printed and the final values of its variables. Nothing about
+ * the run is shown on standard output.
+ * <p>
+ * Compiler temporaries (names starting with "$", see
+ * {@link dendron.tree.SharedExpression}) are not part of the program
+ * and are left out of the symbol table, as {@link Errors#dump(Map)}
+ * leaves them out, so every engine gives the same result for the same
+ * program.
+ *
+ * @author Pedro Breton
+ * @see dendron.tree.ParseTree#execute(dendron.tree.ParseTree.Engine)
+ */
+public final class ExecutionResult {
+
+    private final int[] output;
+    private final Map<String, Integer> symbolTable;
+
+    /**
+     * Record the result of a run.
+     *
+     * @param output      the values printed, in order; the array is kept,
+     *                    not copied
+     * @param symbolTable the variables set by the run, by name
+     */
+    public ExecutionResult(int[] output, Map<String, Integer> symbolTable) {
+        this.output = output;
+        Map<String, Integer> variables = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : symbolTable.entrySet()) {
+            if (!entry.getKey().startsWith("$")) {
+                variables.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.symbolTable = Collections.unmodifiableMap(variables);
+    }
+
+    /**
+     * @return the values the program printed, in order, in a new array
+     */
+    public int[] getOutput() {
+        return this.output.clone();
+    }
+
+    /**
+     * @return the final value of every variable the program set, by name;
+     * the map cannot be changed
+     */
+    public Map<String, Integer> getSymbolTable() {
+        return this.symbolTable;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ExecutionResult)) {
+            return false;
+        }
+        ExecutionResult that = (ExecutionResult) other;
+        return Arrays.equals(this.output, that.output) && this.symbolTable.equals(that.symbolTable);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(this.output) + this.symbolTable.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "output " + Arrays.toString(this.output) + ", variables " + this.symbolTable;
+    }
+}
@@ -0,0 +1,581 @@
+package dendron;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits Dendron source into tokens and says what kind each one is.
+ * <p>
+ * Tokens are separated by white space. A token is an operator if it is
+ * exactly one of the operator symbols, an identifier if it starts with an
+ * ASCII letter, an integer literal if it is an optional sign followed by
+ * decimal digits, and invalid otherwise. These are the same rules the
+ * parser has always used, applied by looking at characters rather than
+ * by matching regular expressions.
+ * <p>
+ * A Lexer is a cursor: {@link #next()} moves to the next token, and the
+ * other methods describe the current one. This way nothing is allocated
+ * per token except the String for an identifier, and even those are
+ * shared between nearby uses of the same name. Every token has a token
+ * number and, when the source is text, a line and column.
+ * <p>
+ * Text sources are read in blocks. A file can also be mapped into memory
+ * and decoded as UTF-8 in bulk. I/O errors while reading are thrown as
+ * {@link UncheckedIOException}.
+ *
+ * @author Pedro Breton
+ */
+public final class Lexer implements Closeable {
+
+    /**
+     * What a token is
+     */
+    public enum Kind {
+        ASSIGN(":="),
+        PRINT("@"),
+        ADD("+"),
+        SUBTRACT("-"),
+        MULTIPLY("*"),
+        DIVIDE("/"),
+        NEGATE("_"),
+        SQUARE_ROOT("#"),
+        IDENTIFIER(null),
+        INTEGER(null),
+        INVALID(null);
+
+        private final String symbol;
+
+        Kind(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @return the operator's symbol, or null if this is not an operator
+         */
+        public String getSymbol() {
+            return this.symbol;
+        }
+
+        /**
+         * @return whether a token of this kind begins a new statement
+         */
+        public boolean startsStatement() {
+            return this == ASSIGN || this == PRINT;
+        }
+    }
+
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int CACHE_SIZE = 1024;
+    private static final int SMALL_CACHE_SIZE = 16;
+
+    private final Reader reader;
+    private final ByteBuffer bytes;
+    private final ByteBuffer staging;
+    private final CharsetDecoder decoder;
+    private final Iterator<String> words;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+    private boolean exhausted;
+
+    private int line = 1;
+    private int column;
+
+    private char[] text = new char[32];
+    private char[] tokenChars;
+    private int tokenStart;
+    private int textLength;
+    private String word;
+    private final String[] names;
+
+    private Kind kind;
+    private int value;
+    private boolean inRange;
+    private int tokenIndex = -1;
+    private int tokenLine;
+    private int tokenColumn;
+
+    private Lexer(Reader reader, ByteBuffer bytes, Iterator<String> words) {
+        this.reader = reader;
+        this.bytes = bytes;
+        this.words = words;
+        this.decoder = bytes == null ? null : StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.staging = bytes == null ? null : ByteBuffer.allocate(BLOCK_SIZE).flip();
+        this.buffer = words == null ? new char[BLOCK_SIZE] : null;
+        this.names = new String[CACHE_SIZE];
+    }
+
+    private Lexer(char[] text) {
+        this.reader = null;
+        this.bytes = null;
+        this.words = null;
+        this.decoder = null;
+        this.staging = null;
+        this.buffer = text;
+        this.limit = text.length;
+        this.exhausted = true;
+        this.names = new String[SMALL_CACHE_SIZE];
+    }
+
+    /**
+     * Make a Lexer that reads source text. The reader is closed when
+     * the Lexer is.
+     *
+     * @param reader the source text
+     */
+    public Lexer(Reader reader) {
+        this(reader, null, null);
+    }
+
+    /**
+     * Make a Lexer for a UTF-8 source file, which is mapped into memory.
+     *
+     * @param file the source file
+     * @return the Lexer
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static Lexer open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            return new Lexer(null, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null);
+        }
+    }
+
+    /**
+     * Make a Lexer for a short piece of source text, such as a single
+     * statement, that is already in memory.
+     *
+     * @param text the source text
+     * @return the Lexer
+     */
+    public static Lexer of(String text) {
+        return new Lexer(text.toCharArray());
+    }
+
+    /**
+     * Make a Lexer for UTF-8 source text held in a buffer, such as one
+     * piece of a mapped file. The buffer's remaining bytes are read, and
+     * its position moves on as they are.
+     *
+     * @param utf8 the source text
+     * @return the Lexer
+     */
+    public static Lexer of(ByteBuffer utf8) {
+        return new Lexer(null, utf8, null);
+    }
+
+    /**
+     * Make a Lexer for a program that has already been split into
+     * tokens. Its tokens have token numbers but no lines or columns.
+     *
+     * @param tokens the tokens, in order
+     * @return the Lexer
+     */
+    public static Lexer of(List<String> tokens) {
+        return new Lexer(null, null, tokens.iterator());
+    }
+
+    /**
+     * Say what kind of token a piece of text would be.
+     *
+     * @param token the text of one token
+     * @return its kind
+     */
+    public static Kind classify(String token) {
+        int length = token.length();
+        char first = length == 0 ? ' ' : token.charAt(0);
+        if (length == 1) {
+            Kind operator = operator(first);
+            if (operator != null) {
+                return operator;
+            }
+        } else if (length == 2 && first == ':' && token.charAt(1) == '=') {
+            return Kind.ASSIGN;
+        }
+        if (isLetter(first)) {
+            return Kind.IDENTIFIER;
+        }
+        int i = first == '-' || first == '+' ? 1 : 0;
+        if (i == length) {
+            return Kind.INVALID;
+        }
+        for (; i < length; ++i) {
+            if (!isDigit(token.charAt(i))) {
+                return Kind.INVALID;
+            }
+        }
+        return Kind.INTEGER;
+    }
+
+    /**
+     * Move to the next token.
+     *
+     * @return true if there is one, false at the end of the source
+     * @throws UncheckedIOException if the source cannot be read
+     */
+    public boolean next() {
+        if (this.words != null) {
+            return nextWord();
+        }
+
+        // The cursor is kept in locals while scanning, and written back at the end.
+        char[] chars = this.buffer;
+        int pos = this.position;
+        int lim = this.limit;
+        int col = this.column;
+
+        // Skip white space.
+        for (; ; ) {
+            if (pos == lim) {
+                if (!fill()) {
+                    this.position = this.limit;
+                    this.column = col;
+                    this.kind = null;
+                    return false;
+                }
+                pos = 0;
+                lim = this.limit;
+            }
+            char c = chars[pos];
+            if (c == '\n') {
+                ++this.line;
+                col = 0;
+            } else if (isSpace(c)) {
+                ++col;
+            } else {
+                break;
+            }
+            ++pos;
+        }
+
+        ++this.tokenIndex;
+        this.tokenLine = this.line;
+        this.tokenColumn = col + 1;
+        this.word = null;
+        int start = pos;
+        while (pos < lim && !isSpace(chars[pos])) {
+            ++pos;
+        }
+        char[] source = chars;
+        int length = pos - start;
+        if (pos == lim) {
+            // The token may go on into the next block, so it is gathered
+            // in the text buffer; all other tokens are read where they are.
+            source = this.text;
+            length = 0;
+            for (; ; ) {
+                int count = pos - start;
+                if (length + count > source.length) {
+                    source = this.text = Arrays.copyOf(source, Math.max(2 * source.length, length + count));
+                }
+                System.arraycopy(chars, start, source, length, count);
+                length += count;
+                if (pos < lim) {
+                    break;
+                }
+                this.position = pos;
+                if (!fill()) {
+                    break;
+                }
+                pos = start = 0;
+                lim = this.limit;
+                while (pos < lim && !isSpace(chars[pos])) {
+                    ++pos;
+                }
+            }
+            start = 0;
+        }
+        this.position = pos;
+        this.column = col + length;
+        this.tokenChars = source;
+        this.tokenStart = start;
+        this.textLength = length;
+        classify();
+        return true;
+    }
+
+    /**
+     * Move to the next of a list of tokens.
+     */
+    private boolean nextWord() {
+        if (!this.words.hasNext()) {
+            this.kind = null;
+            return false;
+        }
+        ++this.tokenIndex;
+        this.word = this.words.next();
+        this.kind = classify(this.word);
+        if (this.kind == Kind.INTEGER) {
+            try {
+                this.value = Integer.parseInt(this.word);
+                this.inRange = true;
+            } catch (NumberFormatException nfe) {
+                this.inRange = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Work out the kind, and for a number the value, of the current token.
+     */
+    private void classify() {
+        char[] chars = this.tokenChars;
+        int start = this.tokenStart;
+        int end = start + this.textLength;
+        char first = chars[start];
+        if (isLetter(first)) {
+            this.kind = Kind.IDENTIFIER;
+            return;
+        }
+        if (this.textLength == 1) {
+            Kind operator = operator(first);
+            if (operator != null) {
+                this.kind = operator;
+                return;
+            }
+        } else if (this.textLength == 2 && first == ':' && chars[start + 1] == '=') {
+            this.kind = Kind.ASSIGN;
+            return;
+        }
+
+        int i = first == '-' || first == '+' ? start + 1 : start;
+        if (i == end) {
+            this.kind = Kind.INVALID;
+            return;
+        }
+        long number = 0;
+        for (; i < end; ++i) {
+            char c = chars[i];
+            if (!isDigit(c)) {
+                this.kind = Kind.INVALID;
+                return;
+            }
+            if (number <= Integer.MAX_VALUE + 1L) {
+                number = number * 10 + (c - '0');
+            }
+        }
+        if (first == '-') {
+            number = -number;
+        }
+        this.kind = Kind.INTEGER;
+        this.inRange = number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE;
+        this.value = (int) number;
+    }
+
+    /**
+     * @return the kind of the current token, or null after the end
+     */
+    public Kind kind() {
+        return this.kind;
+    }
+
+    /**
+     * @return the text of the current token. For an identifier this is
+     * often a String already returned for an earlier token.
+     */
+    public String text() {
+        if (this.word == null) {
+            if (this.kind.getSymbol() != null) {
+                this.word = this.kind.getSymbol();
+            } else if (this.kind == Kind.IDENTIFIER) {
+                this.word = name();
+            } else {
+                this.word = new String(this.tokenChars, this.tokenStart, this.textLength);
+            }
+        }
+        return this.word;
+    }
+
+    /**
+     * @return the value of the current token, if it is an integer literal
+     * that is {@link #isInRange() in range}
+     */
+    public int intValue() {
+        return this.value;
+    }
+
+    /**
+     * @return whether the current integer literal fits in an int
+     */
+    public boolean isInRange() {
+        return this.inRange;
+    }
+
+    /**
+     * @return the 0-based number of the current token; after the end,
+     * that of the last token, so one less than the number of tokens
+     */
+    public int tokenIndex() {
+        return this.tokenIndex;
+    }
+
+    /**
+     * @return the 1-based line of the current token, or 0 if the
+     * source has no lines; after the end, the number of the line the
+     * source ends on
+     */
+    public int line() {
+        if (this.words != null) {
+            return 0;
+        }
+        return this.kind == null ? this.line : this.tokenLine;
+    }
+
+    /**
+     * @return the 1-based column of the current token, or 0 if the
+     * source has no lines
+     */
+    public int column() {
+        return this.words == null ? this.tokenColumn : 0;
+    }
+
+    /**
+     * @return where the current token is
+     */
+    public SourcePosition position() {
+        return this.words == null
+                ? SourcePosition.of(this.tokenIndex, this.tokenLine, this.tokenColumn)
+                : SourcePosition.ofToken(this.tokenIndex);
+    }
+
+    /**
+     * Close the source, if it is a reader.
+     *
+     * @throws IOException if the reader cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.reader != null) {
+            this.reader.close();
+        }
+    }
+
+    /**
+     * Get a String for the identifier in the text buffer, reusing the
+     * last String made for an identifier with the same hash slot if it
+     * has the same characters.
+     */
+    private String name() {
+        char[] chars = this.tokenChars;
+        int start = this.tokenStart;
+        int h = 0;
+        for (int i = 0; i < this.textLength; ++i) {
+            h = 31 * h + chars[start + i];
+        }
+        int slot = (h ^ h >>> 16) & (this.names.length - 1);
+        String cached = this.names[slot];
+        if (cached != null && cached.length() == this.textLength) {
+            boolean same = true;
+            for (int i = 0; same && i < this.textLength; ++i) {
+                same = cached.charAt(i) == chars[start + i];
+            }
+            if (same) {
+                return cached;
+            }
+        }
+        String name = new String(chars, start, this.textLength);
+        this.names[slot] = name;
+        return name;
+    }
+
+    /**
+     * Refill the character buffer.
+     *
+     * @return false if the source has no more characters
+     */
+    private boolean fill() {
+        if (this.exhausted) {
+            return false;
+        }
+        try {
+            if (this.reader != null) {
+                int count = this.reader.read(this.buffer);
+                if (count < 0) {
+                    this.exhausted = true;
+                    return false;
+                }
+                this.position = 0;
+                this.limit = count;
+                return true;
+            }
+            // Decoding is much faster between two array-backed buffers, so
+            // the mapped bytes are copied a block at a time into a heap buffer.
+            ByteBuffer staged = this.staging;
+            staged.compact();
+            int count = Math.min(staged.remaining(), this.bytes.remaining());
+            this.bytes.get(staged.array(), staged.arrayOffset() + staged.position(), count);
+            staged.position(staged.position() + count);
+            staged.flip();
+            boolean last = !this.bytes.hasRemaining();
+            CharBuffer chars = CharBuffer.wrap(this.buffer);
+            CoderResult result = this.decoder.decode(staged, chars, last);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (last && !staged.hasRemaining()) {
+                this.decoder.flush(chars);
+                this.exhausted = true;
+            }
+            this.position = 0;
+            this.limit = chars.position();
+            return this.limit > 0;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private static Kind operator(char c) {
+        switch (c) {
+            case '@':
+                return Kind.PRINT;
+            case '+':
+                return Kind.ADD;
+            case '-':
+                return Kind.SUBTRACT;
+            case '*':
+                return Kind.MULTIPLY;
+            case '/':
+                return Kind.DIVIDE;
+            case '_':
+                return Kind.NEGATE;
+            case '#':
+                return Kind.SQUARE_ROOT;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return whether a character separates tokens; this includes new lines
+     */
+    private static boolean isSpace(char c) {
+        return (c <= ' ' || c >= '\u0080') && Character.isWhitespace(c);
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,45 @@
+package dendron;
+
+import java.util.Arrays;
+
+/**
+ * A sink that keeps the values in memory, in the order they were
+ * printed, for a caller that wants them as numbers rather than text.
+ *
+ * @author Pedro Breton
+ * @see ExecutionResult
+ */
+public final class OutputBuffer implements OutputSink {
+
+    private int[] values = new int[16];
+    private int size;
+
+    @Override
+    public void accept(int value) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, 2 * this.size);
+        }
+        this.values[this.size++] = value;
+    }
+
+    /**
+     * @return the number of values printed so far
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the values printed so far, in order, in a new array
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+
+    /**
+     * Forget the values printed so far.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+}
@@ -0,0 +1,59 @@
+package dendron;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Where the values a Dendron program prints go. Every engine hands each
+ * printed value to a sink, in order, as a plain int; what becomes of it
+ * is up to the sink:
+ * <ul>
+ *     <li>{@link TextSink} formats the values as lines of text, the way
+ *     the engines have always shown them, and buffers the text;</li>
+ *     <li>{@link BinarySink} writes them as 4-byte binary ints;</li>
+ *     <li>{@link OutputBuffer} keeps them in memory for the caller;</li>
+ *     <li>{@link #DISCARD} drops them.</li>
+ * </ul>
+ * A sink may hold on to values until it is flushed. The engines flush
+ * the sink at the end of every run, including one that fails, so what
+ * was printed before an error is never lost. A sink is used by one
+ * thread at a time.
+ *
+ * @author Pedro Breton
+ */
+@FunctionalInterface
+public interface OutputSink extends IntConsumer {
+
+    /**
+     * A sink that drops every value
+     */
+    OutputSink DISCARD = value -> {
+    };
+
+    /**
+     * Take one printed value.
+     *
+     * @param value the value the program printed
+     */
+    @Override
+    void accept(int value);
+
+    /**
+     * Pass on any values held back, and flush whatever the sink writes to.
+     *
+     * @throws java.io.UncheckedIOException if they cannot be written
+     */
+    default void flush() {
+    }
+
+    /**
+     * Get a sink that shows values on standard output, one per line, in
+     * the form an engine has always used, such as "*** 42". The text is
+     * buffered until the sink is flushed.
+     *
+     * @param prefix what comes before each value on its line
+     * @return a new sink
+     */
+    static OutputSink console(String prefix) {
+        return new TextSink(TextSink.STANDARD_OUTPUT, prefix);
+    }
+}
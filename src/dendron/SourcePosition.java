@@ -0,0 +1,88 @@
+package dendron;
+
+/**
+ * Where something was found in a Dendron program. Programs given as a
+ * plain list of tokens only have a token number; programs read from a
+ * text file also have a line and a column.
+ *
+ * @author Pedro Breton
+ */
+public final class SourcePosition {
+
+    private final int token;
+    private final int line;
+    private final int column;
+
+    private SourcePosition(int token, int line, int column) {
+        this.token = token;
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Make a position for a program that has no line structure.
+     *
+     * @param token the 0-based index of the token in the program
+     * @return the position
+     */
+    public static SourcePosition ofToken(int token) {
+        return new SourcePosition(token, 0, 0);
+    }
+
+    /**
+     * Make a position within a text file.
+     *
+     * @param token  the 0-based index of the token in the program
+     * @param line   the 1-based line number
+     * @param column the 1-based column number
+     * @return the position
+     */
+    public static SourcePosition of(int token, int line, int column) {
+        return new SourcePosition(token, line, column);
+    }
+
+    /**
+     * Move a position found in one piece of a program to where it is in
+     * the whole program. The piece must start at the beginning of a line,
+     * so the column stays the same.
+     *
+     * @param tokens the number of tokens before the piece
+     * @param lines  the number of lines before the piece
+     * @return the position in the whole program
+     */
+    public SourcePosition shift(int tokens, int lines) {
+        return new SourcePosition(this.token + tokens, this.line > 0 ? this.line + lines : 0, this.column);
+    }
+
+    /**
+     * @return the 0-based index of the token in the program
+     */
+    public int getToken() {
+        return this.token;
+    }
+
+    /**
+     * @return the 1-based line number, or 0 if not known
+     */
+    public int getLine() {
+        return this.line;
+    }
+
+    /**
+     * @return the 1-based column number, or 0 if not known
+     */
+    public int getColumn() {
+        return this.column;
+    }
+
+    /**
+     * @return the line and column if known, otherwise the token number
+     */
+    @Override
+    public String toString() {
+        if (this.line > 0) {
+            return String.format("line %d, column %d", this.line, this.column);
+        }
+        return String.format("token %d", this.token + 1);
+    }
+}
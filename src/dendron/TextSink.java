@@ -0,0 +1,123 @@
+package dendron;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A sink that shows each value on a line of its own, after a prefix,
+ * as in "=== 42". The text is formatted straight into a byte buffer,
+ * without going through {@link java.util.Formatter}, and is written out
+ * when the buffer is full or the sink is flushed, so a program that
+ * prints a great deal does not wait on the console for every line.
+ *
+ * @author Pedro Breton
+ */
+public final class TextSink implements OutputSink {
+
+    /**
+     * Standard output, as it is when something is written; following
+     * {@link System#setOut} rather than keeping the stream of the moment
+     * the sink was made
+     */
+    static final OutputStream STANDARD_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+            System.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            System.out.flush();
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The longest line: a prefix, a sign, ten digits and a newline
+     */
+    private static final int MAX_DIGITS = 12;
+
+    private final OutputStream out;
+    private final byte[] prefix;
+    private final byte[] buffer;
+    private int size;
+
+    /**
+     * Create a sink that writes text to a stream.
+     *
+     * @param out    where the text goes; it is not closed by the sink
+     * @param prefix what comes before each value on its line
+     */
+    public TextSink(OutputStream out, String prefix) {
+        this.out = out;
+        this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, 2 * (this.prefix.length + MAX_DIGITS))];
+    }
+
+    @Override
+    public void accept(int value) {
+        if (this.size + this.prefix.length + MAX_DIGITS > this.buffer.length) {
+            drain();
+        }
+        System.arraycopy(this.prefix, 0, this.buffer, this.size, this.prefix.length);
+        this.size += this.prefix.length;
+        if (value == Integer.MIN_VALUE) {
+            byte[] digits = Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(digits, 0, this.buffer, this.size, digits.length);
+            this.size += digits.length;
+        } else {
+            if (value < 0) {
+                this.buffer[this.size++] = '-';
+                value = -value;
+            }
+            int end = this.size + digitCount(value);
+            for (int at = end - 1; at >= this.size; --at) {
+                this.buffer[at] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            this.size = end;
+        }
+        this.buffer[this.size++] = '\n';
+    }
+
+    private static int digitCount(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            ++count;
+        }
+        return count;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+        try {
+            this.out.flush();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Write out the buffered text.
+     */
+    private void drain() {
+        if (this.size > 0) {
+            try {
+                this.out.write(this.buffer, 0, this.size);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            this.size = 0;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package dendron.jvm;
+
+import dendron.machine.Executable;
+import dendron.machine.Machine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A backend that translates Machine code into JVM bytecode for a hidden
+ * class, so that a Dendron program runs as ordinary Java code and the
+ * JIT can optimize it as a whole.
+ * <p>
+ * The translation is direct: the Machine's value stack becomes the JVM
+ * operand stack, and each variable slot becomes a JVM local variable.
+ * Machine code has no jumps, so whether a variable has been given a value
+ * at any LOAD is known while translating; a LOAD that must fail, or an
+ * instruction that must underflow the stack, is compiled into a call
+ * that raises the same error the Machine would. Division and square root
+ * call small helpers that check their operands.
+ * <p>
+ * The JIT only compiles methods of modest size, so a long program is split
+ * at statement boundaries (where the stack is empty) into several methods.
+ * Variables are handed from one to the next through an int array.
+ *
+ * @author Pedro Breton
+ */
+public final class BytecodeCompiler {
+
+    private static final String CLASS_NAME = "dendron/jvm/DendronProgram";
+    private static final String CHUNK_DESCRIPTOR = "([ILjava/util/function/IntConsumer;)V";
+    private static final MethodType RUN_TYPE =
+            MethodType.methodType(void.class, int[].class, IntConsumer.class);
+
+    /**
+     * Largest code size of one generated method. The JVM allows 65535
+     * bytes, but HotSpot will not JIT-compile a method of more than 8000,
+     * which would defeat the purpose of this backend. A single statement
+     * larger than this still gets a method of its own.
+     */
+    private static final int METHOD_LIMIT = 8000;
+
+    /**
+     * Most bytes needed to move one variable between a local and the frame array.
+     */
+    private static final int TRANSFER_SIZE = 9;
+
+    /**
+     * Local variable slots taken by the method arguments
+     */
+    private static final int ARGS = 2;
+
+    private final ClassFile classFile;
+    private final boolean[] initialized;
+    private int depth;
+    private int chunks;
+
+    // The method being built
+    private Code chunk;
+    private BitSet chunkReads;
+    private BitSet chunkStores;
+    private int chunkMaxDepth;
+
+    // The statement being built
+    private Code statement;
+    private BitSet statementReads;
+    private BitSet statementStores;
+    private int statementMaxDepth;
+    private boolean stopped;
+
+    private BytecodeCompiler(Executable program) {
+        this.classFile = new ClassFile(CLASS_NAME);
+        this.initialized = new boolean[program.slotCount()];
+        this.depth = 0;
+        this.chunks = 0;
+        startChunk();
+        startStatement();
+    }
+
+    /**
+     * Translate a Machine program to JVM bytecode and load it.
+     *
+     * @param program a list of Machine instructions
+     * @return the loaded program, ready to run any number of times
+     * @throws IllegalArgumentException if the program is beyond what the
+     *                                  JVM can hold, for example a single
+     *                                  statement needing more than 64K of code
+     */
+    public static JvmProgram compile(List<Machine.Instruction> program) {
+        Executable exe = Executable.of(program);
+        if (exe.slotCount() > 0xFFFF - ARGS) {
+            throw new IllegalArgumentException("program has too many variables for the JVM backend");
+        }
+        BytecodeCompiler compiler = new BytecodeCompiler(exe);
+        for (Machine.Instruction instr : exe.instructions()) {
+            compiler.translate(instr);
+            if (compiler.stopped) {
+                break;
+            }
+        }
+        compiler.endStatement();
+        compiler.endChunk(compiler.stopped);
+        byte[] bytes = compiler.finish();
+
+        String[] names = new String[exe.slotCount()];
+        BitSet setAtEnd = new BitSet(names.length);
+        for (int slot = 0; slot < names.length; slot++) {
+            names[slot] = exe.nameOf(slot);
+            if (compiler.initialized[slot]) {
+                setAtEnd.set(slot);
+            }
+        }
+        try {
+            MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle run = hidden.findStatic(hidden.lookupClass(), "run", RUN_TYPE);
+            return new JvmProgram(run, names, setAtEnd, compiler.depth);
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("generated class could not be loaded", e);
+        }
+    }
+
+    private void translate(Machine.Instruction instr) {
+        if (instr instanceof Machine.PushConst) {
+            this.statement.pushInt(this.classFile, ((Machine.PushConst) instr).getConstant());
+            grow(0, 1);
+        } else if (instr instanceof Machine.Load) {
+            int slot = ((Machine.Load) instr).getSlot();
+            if (!this.initialized[slot]) {
+                this.statement.op(Code.LDC_W).u2(this.classFile.string(((Machine.Load) instr).getName()));
+                this.statement.op(Code.INVOKESTATIC).u2(this.classFile.methodRef(
+                        JvmRuntime.INTERNAL_NAME, "uninitialized", "(Ljava/lang/String;)V"));
+                grow(0, 1);
+                stop();
+                return;
+            }
+            if (!this.statementStores.get(slot)) {
+                this.statementReads.set(slot);
+            }
+            this.statement.local(Code.ILOAD, ARGS + slot);
+            grow(0, 1);
+        } else if (instr instanceof Machine.Store) {
+            if (!grow(1, -1)) {
+                return;
+            }
+            int slot = ((Machine.Store) instr).getSlot();
+            this.statement.local(Code.ISTORE, ARGS + slot);
+            this.statementStores.set(slot);
+            this.initialized[slot] = true;
+        } else if (instr instanceof Machine.Duplicate) {
+            if (grow(1, 1)) {
+                this.statement.op(Code.DUP);
+            }
+        } else if (instr instanceof Machine.Print) {
+            if (grow(1, -1)) {
+                this.statementMaxDepth = Math.max(this.statementMaxDepth, this.depth + 2);
+                this.statement.op(Code.ALOAD_1).op(Code.SWAP);
+                this.statement.op(Code.INVOKEINTERFACE).u2(this.classFile.interfaceMethodRef(
+                        "java/util/function/IntConsumer", "accept", "(I)V")).u1(2).u1(0);
+            }
+        } else if (instr instanceof Machine.Add) {
+            binary(Code.IADD);
+        } else if (instr instanceof Machine.Subtract) {
+            binary(Code.ISUB);
+        } else if (instr instanceof Machine.Multiply) {
+            binary(Code.IMUL);
+        } else if (instr instanceof Machine.Divide) {
+            if (grow(2, -1)) {
+                this.statement.op(Code.INVOKESTATIC).u2(this.classFile.methodRef(
+                        JvmRuntime.INTERNAL_NAME, "divide", "(II)I"));
+            }
+        } else if (instr instanceof Machine.Negate) {
+            if (grow(1, 0)) {
+                this.statement.op(Code.INEG);
+            }
+        } else if (instr instanceof Machine.SquareRoot) {
+            if (grow(1, 0)) {
+                this.statement.op(Code.INVOKESTATIC).u2(this.classFile.methodRef(
+                        JvmRuntime.INTERNAL_NAME, "sqrt", "(I)I"));
+            }
+        } else {
+            throw new IllegalArgumentException("no JVM translation for " + instr);
+        }
+        if (this.depth == 0) {
+            endStatement();
+            startStatement();
+        }
+    }
+
+    private void binary(int opcode) {
+        if (grow(2, -1)) {
+            this.statement.op(opcode);
+        }
+    }
+
+    /**
+     * Account for an instruction's use of the stack. If the stack cannot
+     * hold enough values, compile a stack underflow error instead.
+     *
+     * @param needed the number of values the instruction pops or reads
+     * @param change the net change in stack depth
+     * @return true if the instruction should be translated
+     */
+    private boolean grow(int needed, int change) {
+        if (this.depth < needed) {
+            this.statement.op(Code.INVOKESTATIC).u2(this.classFile.methodRef(
+                    JvmRuntime.INTERNAL_NAME, "underflow", "()V"));
+            stop();
+            return false;
+        }
+        this.depth += change;
+        this.statementMaxDepth = Math.max(this.statementMaxDepth, this.depth);
+        return true;
+    }
+
+    /**
+     * End the generated code here: nothing after an error that must happen can run.
+     */
+    private void stop() {
+        this.statement.op(Code.RETURN);
+        this.stopped = true;
+    }
+
+    private void startStatement() {
+        this.statement = new Code();
+        this.statementReads = new BitSet();
+        this.statementStores = new BitSet();
+        this.statementMaxDepth = 0;
+    }
+
+    /**
+     * Add the finished statement to the current method, first starting a
+     * new method if the statement would not fit.
+     */
+    private void endStatement() {
+        if (this.statement.size() == 0) {
+            return;
+        }
+        BitSet reads = (BitSet) this.statementReads.clone();
+        reads.andNot(this.chunkStores);
+        reads.or(this.chunkReads);
+        BitSet stores = (BitSet) this.chunkStores.clone();
+        stores.or(this.statementStores);
+        int size = this.chunk.size() + this.statement.size()
+                + TRANSFER_SIZE * (reads.cardinality() + stores.cardinality()) + 1;
+        if (size > METHOD_LIMIT && this.chunk.size() > 0) {
+            endChunk(false);
+            startChunk();
+            endStatement();
+            return;
+        }
+        if (size > 0xFFFF) {
+            throw new IllegalArgumentException("statement is too large for the JVM backend");
+        }
+        this.chunk.append(this.statement);
+        this.chunkReads = reads;
+        this.chunkStores = stores;
+        this.chunkMaxDepth = Math.max(this.chunkMaxDepth, this.statementMaxDepth);
+        this.statement = new Code();
+    }
+
+    private void startChunk() {
+        this.chunk = new Code();
+        this.chunkReads = new BitSet();
+        this.chunkStores = new BitSet();
+        this.chunkMaxDepth = 0;
+    }
+
+    /**
+     * Wrap the current method's code in the loads and stores that move its
+     * variables in from and out to the frame array, and add it to the class.
+     *
+     * @param stopped true if the method ends in an error that must happen,
+     *                so that its code already ends and nothing is stored back
+     */
+    private void endChunk(boolean stopped) {
+        Code method = new Code();
+        for (int slot = this.chunkReads.nextSetBit(0); slot >= 0; slot = this.chunkReads.nextSetBit(slot + 1)) {
+            method.op(Code.ALOAD_0);
+            method.pushInt(this.classFile, slot);
+            method.op(Code.IALOAD);
+            method.local(Code.ISTORE, ARGS + slot);
+        }
+        method.append(this.chunk);
+        if (!stopped) {
+            for (int slot = this.chunkStores.nextSetBit(0); slot >= 0; slot = this.chunkStores.nextSetBit(slot + 1)) {
+                method.op(Code.ALOAD_0);
+                method.pushInt(this.classFile, slot);
+                method.local(Code.ILOAD, ARGS + slot);
+                method.op(Code.IASTORE);
+            }
+            method.op(Code.RETURN);
+        }
+        int maxStack = Math.max(this.chunkMaxDepth + 1, this.depth + 3);
+        if (maxStack > 0xFFFF) {
+            throw new IllegalArgumentException("expression is too deep for the JVM backend");
+        }
+        this.classFile.addStaticMethod("c" + this.chunks++, CHUNK_DESCRIPTOR,
+                maxStack, ARGS + this.initialized.length, method.toByteArray());
+    }
+
+    /**
+     * Add the entry point that calls every method in order.
+     *
+     * @return the finished class file
+     */
+    private byte[] finish() {
+        Code run = new Code();
+        for (int i = 0; i < this.chunks; i++) {
+            run.op(Code.ALOAD_0).op(Code.ALOAD_1);
+            run.op(Code.INVOKESTATIC).u2(this.classFile.methodRef(CLASS_NAME, "c" + i, CHUNK_DESCRIPTOR));
+        }
+        run.op(Code.RETURN);
+        if (run.size() > 0xFFFF) {
+            throw new IllegalArgumentException("program is too large for the JVM backend");
+        }
+        this.classFile.addStaticMethod("run", CHUNK_DESCRIPTOR, 2, ARGS, run.toByteArray());
+        return this.classFile.toByteArray();
+    }
+
+    /**
+     * A growable buffer of bytecode.
+     */
+    private static final class Code {
+        static final int ICONST_0 = 0x03;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC = 0x12;
+        static final int LDC_W = 0x13;
+        static final int ILOAD = 0x15;
+        static final int ALOAD_0 = 0x2a;
+        static final int ALOAD_1 = 0x2b;
+        static final int IALOAD = 0x2e;
+        static final int ISTORE = 0x36;
+        static final int IASTORE = 0x4f;
+        static final int DUP = 0x59;
+        static final int SWAP = 0x5f;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int IMUL = 0x68;
+        static final int INEG = 0x74;
+        static final int RETURN = 0xb1;
+        static final int INVOKESTATIC = 0xb8;
+        static final int INVOKEINTERFACE = 0xb9;
+        static final int WIDE = 0xc4;
+
+        private byte[] bytes = new byte[64];
+        private int length = 0;
+
+        Code op(int opcode) {
+            return u1(opcode);
+        }
+
+        Code u1(int value) {
+            if (this.length == this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, this.length * 2);
+            }
+            this.bytes[this.length++] = (byte) value;
+            return this;
+        }
+
+        Code u2(int value) {
+            return u1(value >> 8).u1(value);
+        }
+
+        /**
+         * Push an int constant using the shortest instruction for it.
+         */
+        Code pushInt(ClassFile classFile, int value) {
+            if (value >= -1 && value <= 5) {
+                return op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                return op(BIPUSH).u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                return op(SIPUSH).u2(value);
+            }
+            int index = classFile.integer(value);
+            return index <= 0xFF ? op(LDC).u1(index) : op(LDC_W).u2(index);
+        }
+
+        /**
+         * Load or store a local variable, using the wide form if needed.
+         */
+        Code local(int opcode, int index) {
+            if (index <= 0xFF) {
+                return op(opcode).u1(index);
+            }
+            return op(WIDE).op(opcode).u2(index);
+        }
+
+        Code append(Code other) {
+            if (this.length + other.length > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + other.length));
+            }
+            System.arraycopy(other.bytes, 0, this.bytes, this.length, other.length);
+            this.length += other.length;
+            return this;
+        }
+
+        int size() {
+            return this.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, this.length);
+        }
+    }
+}
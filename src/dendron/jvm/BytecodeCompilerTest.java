@@ -0,0 +1,104 @@
+package dendron.jvm;
+
+import dendron.DendronRuntimeException;
+import dendron.Errors;
+import dendron.OutputBuffer;
+import dendron.machine.Machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Check that programs long enough to be split into several methods are
+ * translated correctly, above all when the last statement must fail.
+ * <p>
+ * Each case is a run of statements "vk := k", from a few to enough to
+ * cross the method size limit twice, followed by a last statement that
+ * either succeeds, loads a variable that was never set, or underflows the
+ * stack. The program is compiled and run, and what it printed, its final
+ * variables and its error are compared with the Machine's. Any
+ * difference is reported and makes the exit status 1.
+ *
+ * @author Pedro Breton
+ */
+public class BytecodeCompilerTest {
+
+    private static int failures;
+
+    /**
+     * Run the checks.
+     *
+     * @param args not used
+     */
+    public static void main(String... args) {
+        for (int n = 1; n <= 1200; ++n) {
+            check(n, "no error", new Machine.PushConst(1), new Machine.Print());
+            check(n, "uninitialized", new Machine.Load("nope"), new Machine.Print());
+            check(n, "underflow", new Machine.Add());
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("All split programs passed");
+    }
+
+    /**
+     * Check one program: n stores of a fresh variable, then a last
+     * statement.
+     *
+     * @param n    the number of statements before the last one
+     * @param name the name of the last statement, to report
+     * @param last the instructions of the last statement
+     */
+    private static void check(int n, String name, Machine.Instruction... last) {
+        List<Machine.Instruction> code = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            code.add(new Machine.PushConst(i));
+            code.add(new Machine.Store("v" + i));
+        }
+        code.addAll(Arrays.asList(last));
+        String label = n + " statements, " + name;
+
+        OutputBuffer expectedOutput = new OutputBuffer();
+        Machine machine = new Machine(expectedOutput);
+        Errors.Type expectedError = null;
+        try {
+            machine.run(code);
+        } catch (DendronRuntimeException e) {
+            expectedError = e.getType();
+        }
+
+        OutputBuffer output = new OutputBuffer();
+        Errors.Type error = null;
+        try {
+            JvmProgram program = BytecodeCompiler.compile(code);
+            try {
+                int[] frame = program.run(output);
+                expect(label + ": variables", machine.getSymbolTable(), program.getSymbolTable(frame));
+            } catch (DendronRuntimeException e) {
+                error = e.getType();
+            }
+        } catch (RuntimeException | Error e) {
+            fail(label, "threw " + abbreviate(e.toString()));
+            return;
+        }
+        expect(label + ": error", String.valueOf(expectedError), String.valueOf(error));
+        expect(label + ": output", Arrays.toString(expectedOutput.toArray()), Arrays.toString(output.toArray()));
+    }
+
+    private static void expect(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            fail(name, "expected " + abbreviate(expected.toString()) + ", got " + abbreviate(actual.toString()));
+        }
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() <= 60 ? text : text.substring(0, 60) + "... (" + text.length() + " chars)";
+    }
+
+    private static void fail(String name, String message) {
+        System.out.println("FAILED " + name + ": " + message);
+        ++failures;
+    }
+}
@@ -0,0 +1,234 @@
+package dendron.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of the JVM class file format to write a final class with
+ * static methods whose code has no branches and no exception handlers.
+ * Without branches no stack map frames are needed, which keeps this small.
+ *
+ * @author Pedro Breton
+ */
+final class ClassFile {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int VERSION = 52;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(this.poolBytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int codeName;
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * Start a class.
+     *
+     * @param name the internal name of the class, e.g. "dendron/jvm/Code"
+     */
+    ClassFile(String name) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef("java/lang/Object");
+        this.codeName = utf8("Code");
+    }
+
+    /**
+     * Add a public static method.
+     *
+     * @param name       the method name
+     * @param descriptor the method descriptor
+     * @param maxStack   the deepest the operand stack gets
+     * @param maxLocals  the number of local variable slots, including arguments
+     * @param code       the bytecode
+     */
+    void addStaticMethod(String name, String descriptor, int maxStack, int maxLocals, byte[] code) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(this.codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+        this.methods.add(bytes.toByteArray());
+    }
+
+    /**
+     * @return the finished class file
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(this.poolCount);
+            this.pool.flush();
+            this.poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(this.thisClass);
+            out.writeShort(this.superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(this.methods.size());
+            for (byte[] method : this.methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the constant pool index of a UTF-8 string
+     */
+    int utf8(String text) {
+        Integer index = this.entries.get("U" + text);
+        if (index == null) {
+            index = add("U" + text);
+            try {
+                this.pool.writeByte(CONSTANT_UTF8);
+                this.pool.writeUTF(text);
+            } catch (IOException ioe) {
+                throw new IllegalStateException(ioe);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the constant pool index of an int constant, for LDC
+     */
+    int integer(int value) {
+        Integer index = this.entries.get("I" + value);
+        if (index == null) {
+            index = add("I" + value);
+            write(CONSTANT_INTEGER, value);
+        }
+        return index;
+    }
+
+    /**
+     * @return the constant pool index of a String constant, for LDC
+     */
+    int string(String text) {
+        Integer index = this.entries.get("S" + text);
+        if (index == null) {
+            int utf = utf8(text);
+            index = add("S" + text);
+            write(CONSTANT_STRING, utf);
+        }
+        return index;
+    }
+
+    /**
+     * @return the constant pool index of a class reference
+     */
+    int classRef(String internalName) {
+        Integer index = this.entries.get("C" + internalName);
+        if (index == null) {
+            int utf = utf8(internalName);
+            index = add("C" + internalName);
+            write(CONSTANT_CLASS, utf);
+        }
+        return index;
+    }
+
+    /**
+     * @return the constant pool index of a static or virtual method reference
+     */
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    /**
+     * @return the constant pool index of an interface method reference
+     */
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = "M" + tag + owner + "." + name + descriptor;
+        Integer index = this.entries.get(key);
+        if (index == null) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(descriptor);
+            String natKey = "N" + name + descriptor;
+            Integer nat = this.entries.get(natKey);
+            if (nat == null) {
+                nat = add(natKey);
+                writePair(CONSTANT_NAME_AND_TYPE, nameIndex, typeIndex);
+            }
+            index = add(key);
+            writePair(tag, ownerIndex, nat);
+        }
+        return index;
+    }
+
+    private int add(String key) {
+        int index = this.poolCount++;
+        if (index > 0xFFFF) {
+            throw new IllegalArgumentException("program needs too many JVM constants");
+        }
+        this.entries.put(key, index);
+        return index;
+    }
+
+    private void write(int tag, int value) {
+        try {
+            this.pool.writeByte(tag);
+            if (tag == CONSTANT_INTEGER) {
+                this.pool.writeInt(value);
+            } else {
+                this.pool.writeShort(value);
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    private void writePair(int tag, int first, int second) {
+        try {
+            this.pool.writeByte(tag);
+            this.pool.writeShort(first);
+            this.pool.writeShort(second);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package dendron.jvm;
+
+import dendron.DendronException;
+import dendron.Errors;
+import dendron.OutputSink;
+import dendron.machine.Machine;
+
+import java.lang.invoke.MethodHandle;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * A Dendron program that has been compiled to JVM bytecode by the
+ * {@link BytecodeCompiler}. It keeps no state between runs, so it may be
+ * run any number of times, from any number of threads at once.
+ *
+ * @author Pedro Breton
+ */
+public final class JvmProgram {
+
+    private final MethodHandle code;
+    private final String[] names;
+    private final BitSet setAtEnd;
+    private final int stackLeft;
+
+    /**
+     * Package a loaded program.
+     *
+     * @param code      the generated entry point, taking the variable frame and the print target
+     * @param names     the variable name for every slot
+     * @param setAtEnd  the slots that hold a value once the program has finished
+     * @param stackLeft the number of values the program leaves on the stack
+     */
+    JvmProgram(MethodHandle code, String[] names, BitSet setAtEnd, int stackLeft) {
+        this.code = code;
+        this.names = names;
+        this.setAtEnd = setAtEnd;
+        this.stackLeft = stackLeft;
+    }
+
+    /**
+     * Run the program.
+     *
+     * @param printer receives every value the program prints, in order;
+     *                an {@link OutputSink} is left for the caller to flush
+     * @return the final value of every variable, indexed by slot
+     * @throws DendronException if the program fails while running
+     */
+    public int[] run(IntConsumer printer) {
+        int[] frame = new int[this.names.length];
+        try {
+            this.code.invokeExact(frame, printer);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        return frame;
+    }
+
+    /**
+     * Show the final variable values of a run by name.
+     *
+     * @param frame the array returned by {@link #run}
+     * @return a map from the name of every variable that was set to its value
+     */
+    public Map<String, Integer> getSymbolTable(int[] frame) {
+        Map<String, Integer> table = new HashMap<>();
+        for (int slot = this.setAtEnd.nextSetBit(0); slot >= 0; slot = this.setAtEnd.nextSetBit(slot + 1)) {
+            table.put(this.names[slot], frame[slot]);
+        }
+        return table;
+    }
+
+    /**
+     * @return the number of values a run leaves on the stack
+     */
+    public int getStackSize() {
+        return this.stackLeft;
+    }
+
+    /**
+     * Run the program the way {@link Machine#execute} does,
+     * printing each value and then the final stack size and symbol table.
+     */
+    public void execute() {
+        System.out.println("Executing compiled code on the JVM...");
+        OutputSink output = OutputSink.console(Machine.PRINT_PREFIX);
+        int[] frame;
+        try {
+            frame = run(output);
+        } finally {
+            output.flush();
+        }
+        System.out.println("JVM: execution ended with " +
+                this.stackLeft + " items left on the stack.");
+        System.out.println();
+        Errors.dump(getSymbolTable(frame));
+    }
+}
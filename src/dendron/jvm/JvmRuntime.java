@@ -0,0 +1,59 @@
+package dendron.jvm;
+
+import dendron.DendronRuntimeException;
+import dendron.Errors;
+
+/**
+ * The helpers that generated code calls for the operations that can
+ * fail. They raise exactly the errors the Machine raises for the same
+ * instructions. They are small enough for the JIT to inline.
+ *
+ * @author Pedro Breton
+ */
+final class JvmRuntime {
+
+    /**
+     * The internal class name generated code uses to call these helpers
+     */
+    static final String INTERNAL_NAME = "dendron/jvm/JvmRuntime";
+
+    /**
+     * Do not instantiate this class.
+     */
+    private JvmRuntime() {
+    }
+
+    /**
+     * The DIV instruction
+     */
+    static int divide(int op1, int op2) {
+        if (op2 == 0) {
+            throw new DendronRuntimeException(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
+        }
+        return op1 / op2;
+    }
+
+    /**
+     * The SQRT instruction
+     */
+    static int sqrt(int op1) {
+        if (op1 < 0) {
+            throw new DendronRuntimeException(Errors.Type.ILLEGAL_VALUE, "Negative square root");
+        }
+        return (int) Math.sqrt(op1);
+    }
+
+    /**
+     * A LOAD of a variable that cannot have been given a value yet
+     */
+    static void uninitialized(String name) {
+        throw new DendronRuntimeException(Errors.Type.UNINITIALIZED, name + " is not initialized");
+    }
+
+    /**
+     * An instruction that needs more values than the stack can hold at that point
+     */
+    static void underflow() {
+        throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+    }
+}
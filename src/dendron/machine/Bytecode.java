@@ -0,0 +1,319 @@
+package dendron.machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact encoding of a resolved Machine program. Each instruction is
+ * a single int in a code array: the opcode in the low 8 bits and its
+ * operand, if it has one, in the upper 24. A PUSH operand is an index
+ * into a pool of distinct constants, and a LOAD or STORE operand is the
+ * variable's slot, whose name is kept in the slot table.
+ * <p>
+ * This takes four bytes per instruction, where a list of
+ * {@link Machine.Instruction} objects takes an object and a list entry
+ * each, and the whole program is in one contiguous array.
+ * {@link Machine#run(Bytecode)} runs it with a switch in a single loop
+ * rather than a virtual call per instruction.
+ * <p>
+ * The encoder also works out the deepest the stack gets and where, if
+ * anywhere, an instruction would find too few values on it; programs
+ * have no jumps, so both are known before the program runs.
+ * <p>
+ * Bytecode never changes after it is built, so it can be shared by any
+ * number of Machines running at the same time.
+ *
+ * @author Pedro Breton
+ */
+public final class Bytecode {
+
+    static final int PUSH = 0;
+    static final int LOAD = 1;
+    static final int STORE = 2;
+    static final int PRINT = 3;
+    static final int ADD = 4;
+    static final int SUB = 5;
+    static final int MUL = 6;
+    static final int DIV = 7;
+    static final int NEG = 8;
+    static final int SQRT = 9;
+    static final int DUP = 10;
+
+    /**
+     * How many bits of an instruction word hold the opcode
+     */
+    static final int OPCODE_BITS = 8;
+    static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    /**
+     * The number of distinct operands (constants, or variable slots)
+     * an instruction word has room for
+     */
+    public static final int OPERAND_LIMIT = 1 << (32 - OPCODE_BITS);
+
+    /**
+     * How many values each opcode takes off the stack, and how many
+     * it leaves, indexed by opcode
+     */
+    static final int[] POPS = {0, 0, 1, 1, 2, 2, 2, 2, 1, 1, 1};
+    static final int[] PUSHES = {1, 1, 0, 0, 1, 1, 1, 1, 1, 1, 2};
+
+    /**
+     * The assembly name of each opcode
+     */
+    static final String[] MNEMONICS = {"PUSH", "LOAD", "STORE", "PRINT", "ADD", "SUB", "MUL", "DIV", "NEG", "SQRT", "DUP"};
+
+    private final int[] code;
+    private final int[] constants;
+    private final SlotTable slots;
+    private final int maxDepth;
+    private final int safeLength;
+
+    private Bytecode(int[] code, int[] constants, SlotTable slots) {
+        this.code = code;
+        this.constants = constants;
+        this.slots = slots;
+
+        int depth = 0;
+        int deepest = 0;
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc] & OPCODE_MASK;
+            if (depth < POPS[opcode]) {
+                break;
+            }
+            depth += PUSHES[opcode] - POPS[opcode];
+            deepest = Math.max(deepest, depth);
+            ++pc;
+        }
+        this.maxDepth = deepest;
+        this.safeLength = pc;
+    }
+
+    /**
+     * Package an already-encoded program, checking that every word holds
+     * a known opcode and an operand that is in range, since the Machine's
+     * dispatch loop relies on both.
+     *
+     * @param code      the instruction words
+     * @param constants the constant pool
+     * @param slots     the variable names, by slot
+     * @return the program
+     * @throws IllegalArgumentException if a word is not a valid instruction
+     */
+    static Bytecode of(int[] code, int[] constants, SlotTable slots) {
+        for (int pc = 0; pc < code.length; ++pc) {
+            int opcode = code[pc] & OPCODE_MASK;
+            int operand = code[pc] >>> OPCODE_BITS;
+            boolean valid;
+            switch (opcode) {
+                case PUSH:
+                    valid = operand < constants.length;
+                    break;
+                case LOAD:
+                case STORE:
+                    valid = operand < slots.size();
+                    break;
+                default:
+                    valid = opcode <= DUP && operand == 0;
+                    break;
+            }
+            if (!valid) {
+                throw new IllegalArgumentException(String.format("bad instruction word 0x%08x at %d", code[pc], pc));
+            }
+        }
+        return new Bytecode(code, constants, slots);
+    }
+
+    /**
+     * Encode a list of instructions. Its LOADs and STOREs are resolved
+     * to slots first, as for {@link Executable#of(List)}.
+     *
+     * @param program a list of Machine instructions
+     * @return the encoded program
+     * @throws IllegalArgumentException if the list holds an instruction
+     *                                  that has no encoding, or the program
+     *                                  has too many constants or variables
+     */
+    public static Bytecode encode(List<Machine.Instruction> program) {
+        SlotTable slots = new SlotTable();
+        List<Machine.Instruction> resolved = Machine.resolve(program, slots);
+        if (slots.size() > OPERAND_LIMIT) {
+            throw new IllegalArgumentException("too many variables for bytecode: " + slots.size());
+        }
+
+        int[] code = new int[resolved.size()];
+        Map<Integer, Integer> pool = new HashMap<>();
+        int[] constants = new int[16];
+        int pc = 0;
+        for (Machine.Instruction instr : resolved) {
+            int word = opcodeOf(instr);
+            if (word == PUSH) {
+                int value = ((Machine.PushConst) instr).getConstant();
+                Integer index = pool.get(value);
+                if (index == null) {
+                    index = pool.size();
+                    if (index == OPERAND_LIMIT) {
+                        throw new IllegalArgumentException("too many constants for bytecode");
+                    }
+                    pool.put(value, index);
+                    if (index == constants.length) {
+                        constants = Arrays.copyOf(constants, 2 * index);
+                    }
+                    constants[index] = value;
+                }
+                word |= index << OPCODE_BITS;
+            } else if (word == LOAD) {
+                word |= ((Machine.Load) instr).getSlot() << OPCODE_BITS;
+            } else if (word == STORE) {
+                word |= ((Machine.Store) instr).getSlot() << OPCODE_BITS;
+            } else if (word < 0) {
+                throw new IllegalArgumentException("no bytecode for instruction " + instr);
+            }
+            code[pc++] = word;
+        }
+        return new Bytecode(code, Arrays.copyOf(constants, pool.size()), slots);
+    }
+
+    /**
+     * Get the opcode of an instruction.
+     *
+     * @param instr a Machine instruction
+     * @return its opcode, or -1 if it is of a kind that has no encoding
+     */
+    static int opcodeOf(Machine.Instruction instr) {
+        if (instr instanceof Machine.PushConst) {
+            return PUSH;
+        } else if (instr instanceof Machine.Load) {
+            return LOAD;
+        } else if (instr instanceof Machine.Store) {
+            return STORE;
+        } else if (instr instanceof Machine.Print) {
+            return PRINT;
+        } else if (instr instanceof Machine.Add) {
+            return ADD;
+        } else if (instr instanceof Machine.Subtract) {
+            return SUB;
+        } else if (instr instanceof Machine.Multiply) {
+            return MUL;
+        } else if (instr instanceof Machine.Divide) {
+            return DIV;
+        } else if (instr instanceof Machine.Negate) {
+            return NEG;
+        } else if (instr instanceof Machine.SquareRoot) {
+            return SQRT;
+        } else if (instr instanceof Machine.Duplicate) {
+            return DUP;
+        }
+        return -1;
+    }
+
+    /**
+     * Turn the encoded program back into Machine instructions, already
+     * bound to their slots.
+     *
+     * @return a new list of instructions
+     */
+    public List<Machine.Instruction> decode() {
+        List<Machine.Instruction> program = new ArrayList<>(this.code.length);
+        for (int word : this.code) {
+            int operand = word >>> OPCODE_BITS;
+            switch (word & OPCODE_MASK) {
+                case PUSH:
+                    program.add(new Machine.PushConst(this.constants[operand]));
+                    break;
+                case LOAD:
+                    program.add(new Machine.Load(this.slots.nameOf(operand), operand));
+                    break;
+                case STORE:
+                    program.add(new Machine.Store(this.slots.nameOf(operand), operand));
+                    break;
+                case PRINT:
+                    program.add(new Machine.Print());
+                    break;
+                case ADD:
+                    program.add(new Machine.Add());
+                    break;
+                case SUB:
+                    program.add(new Machine.Subtract());
+                    break;
+                case MUL:
+                    program.add(new Machine.Multiply());
+                    break;
+                case DIV:
+                    program.add(new Machine.Divide());
+                    break;
+                case NEG:
+                    program.add(new Machine.Negate());
+                    break;
+                case SQRT:
+                    program.add(new Machine.SquareRoot());
+                    break;
+                default:
+                    program.add(new Machine.Duplicate());
+                    break;
+            }
+        }
+        return program;
+    }
+
+    /**
+     * @return the number of instructions in the program
+     */
+    public int length() {
+        return this.code.length;
+    }
+
+    /**
+     * @return the number of distinct constants the program pushes
+     */
+    public int constantCount() {
+        return this.constants.length;
+    }
+
+    /**
+     * @return the number of variable slots a frame for this program needs
+     */
+    public int slotCount() {
+        return this.slots.size();
+    }
+
+    /**
+     * @return the most values the program ever has on the stack
+     */
+    public int maxStackDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Package access to the code array for the Machine's dispatch loop.
+     */
+    int[] code() {
+        return this.code;
+    }
+
+    /**
+     * Package access to the constant pool for the Machine's dispatch loop.
+     */
+    int[] constants() {
+        return this.constants;
+    }
+
+    /**
+     * Package access to the slot table for the Machine's result views.
+     */
+    SlotTable slots() {
+        return this.slots;
+    }
+
+    /**
+     * @return the number of instructions that run before the stack
+     * would underflow, which is the whole program if it never does
+     */
+    int safeLength() {
+        return this.safeLength;
+    }
+}
@@ -0,0 +1,240 @@
+package dendron.machine;
+
+import dendron.DendronException;
+import dendron.Errors;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compiled programs saved in a binary file, so that they can be run many
+ * times without being compiled or assembled again. The file holds a
+ * program's {@link Bytecode} as it is kept in memory, so loading it is a
+ * few bulk copies rather than a parse of every instruction.
+ * <p>
+ * The layout is, with every number a big-endian 32-bit int unless noted:
+ * <pre>
+ *     magic          "DNDB"
+ *     version        u16 major, u16 minor
+ *     slot count     S
+ *     constant count K
+ *     code length    N
+ *     symbol table   S names, each a u16 byte count then UTF-8 bytes
+ *     constant pool  K ints
+ *     code           N instruction words, as in {@link Bytecode}
+ *     checksum       CRC-32 of all of the bytes above
+ * </pre>
+ * A reader accepts any file with the same major version. Minor versions
+ * may only add things a reader of an older minor version can ignore,
+ * after the code and before the checksum; a reader skips any bytes it
+ * finds there.
+ *
+ * @author Pedro Breton
+ */
+public final class BytecodeFile {
+
+    /**
+     * The customary file name extension
+     */
+    public static final String EXTENSION = ".denb";
+
+    private static final int MAGIC = 0x444E4442;
+    private static final int MAJOR_VERSION = 1;
+    private static final int MINOR_VERSION = 0;
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * Do not instantiate this class.
+     */
+    private BytecodeFile() {
+    }
+
+    /**
+     * Encode a list of instructions, such as the output of
+     * {@link dendron.tree.ParseTree#compile()}, and save it to a file.
+     *
+     * @param program a list of Machine instructions
+     * @param file    where to write the program
+     * @throws IOException if the file cannot be written
+     * @see Bytecode#encode(List)
+     */
+    public static void write(List<Machine.Instruction> program, Path file) throws IOException {
+        write(Bytecode.encode(program), file);
+    }
+
+    /**
+     * Save an encoded program to a file.
+     *
+     * @param program the encoded program
+     * @param file    where to write the program
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Bytecode program, Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            write(program, out);
+        }
+    }
+
+    /**
+     * Write an encoded program to a stream. The stream is not closed.
+     *
+     * @param program the encoded program
+     * @param stream  where to write the program
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(Bytecode program, OutputStream stream) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(stream, crc));
+        SlotTable slots = program.slots();
+        int[] constants = program.constants();
+        int[] code = program.code();
+
+        out.writeInt(MAGIC);
+        out.writeShort(MAJOR_VERSION);
+        out.writeShort(MINOR_VERSION);
+        out.writeInt(slots.size());
+        out.writeInt(constants.length);
+        out.writeInt(code.length);
+        for (int slot = 0; slot < slots.size(); ++slot) {
+            byte[] name = slots.nameOf(slot).getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) {
+                throw new IOException("variable name too long: " + slots.nameOf(slot).substring(0, 20) + "...");
+            }
+            out.writeShort(name.length);
+            out.write(name);
+        }
+        for (int constant : constants) {
+            out.writeInt(constant);
+        }
+        for (int word : code) {
+            out.writeInt(word);
+        }
+        out.flush();
+        new DataOutputStream(stream).writeInt((int) crc.getValue());
+        stream.flush();
+    }
+
+    /**
+     * Load a program saved by {@link #write(Bytecode, Path)}. The file
+     * is mapped into memory, checked against its checksum, and its
+     * sections are copied out in bulk.
+     *
+     * @param file the program file
+     * @return the program, ready to run with {@link Machine#run(Bytecode)}
+     * @throws IOException if the file cannot be read, is not a Dendron
+     *                     program file, has an unsupported version, or is damaged
+     */
+    public static Bytecode load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4) {
+                throw new IOException(file + " is not a Dendron program file");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to load");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return load(mapped, file.toString());
+        }
+    }
+
+    /**
+     * Read a program from a buffer holding a whole program file.
+     */
+    private static Bytecode load(ByteBuffer buffer, String name) throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(name + " is not a Dendron program file");
+        }
+        int major = buffer.getShort(4) & 0xFFFF;
+        if (major != MAJOR_VERSION) {
+            throw new IOException(name + " has unsupported format version " +
+                    major + "." + (buffer.getShort(6) & 0xFFFF));
+        }
+
+        int end = buffer.limit() - 4;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(0).limit(end);
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(end)) {
+            throw new IOException(name + " is damaged (checksum mismatch)");
+        }
+
+        try {
+            buffer.position(8);
+            int slotCount = buffer.getInt();
+            int constantCount = buffer.getInt();
+            int codeLength = buffer.getInt();
+            if (slotCount < 0 || constantCount < 0 || codeLength < 0) {
+                throw new IOException(name + " is damaged (negative section size)");
+            }
+
+            SlotTable slots = new SlotTable();
+            byte[] bytes = new byte[64];
+            for (int slot = 0; slot < slotCount; ++slot) {
+                int length = buffer.getShort() & 0xFFFF;
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                buffer.get(bytes, 0, length);
+                String variable = new String(bytes, 0, length, StandardCharsets.UTF_8);
+                if (slots.slotOf(variable) != slot) {
+                    throw new IOException(name + " is damaged (variable " + variable + " listed twice)");
+                }
+            }
+
+            if ((long) 4 * constantCount + (long) 4 * codeLength > end - buffer.position()) {
+                throw new IOException(name + " is damaged (sections extend past the end of the file)");
+            }
+            int[] constants = new int[constantCount];
+            buffer.asIntBuffer().get(constants);
+            buffer.position(buffer.position() + 4 * constantCount);
+            int[] code = new int[codeLength];
+            buffer.asIntBuffer().get(code);
+
+            return Bytecode.of(code, constants, slots);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException(name + " is damaged (" + e.getMessage() + ")", e);
+        }
+    }
+
+    /**
+     * Precompile or run Dendron machine code.
+     *
+     * @param args either an assembly file and the program file to save it
+     *             in, or a program file to run
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java BytecodeFile assembly-code-file program-file");
+            System.err.println("       java BytecodeFile program-file");
+            System.exit(1);
+        }
+        try {
+            if (args.length == 2) {
+                write(FastAssembler.assemble(Paths.get(args[0])), Paths.get(args[1]));
+            } else {
+                Machine.execute(load(Paths.get(args[0])));
+            }
+        } catch (IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        } catch (DendronException de) {
+            Errors.abort(de);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package dendron.machine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compiled program that is ready to run: its instructions have all been
+ * bound to variable slots, and the slot table that goes with them is kept
+ * alongside. An Executable never changes after it is built, so one can be
+ * shared by any number of Machines running at the same time.
+ *
+ * @author Pedro Breton
+ */
+public final class Executable {
+
+    private final Machine.Instruction[] code;
+    private final SlotTable slots;
+
+    private Executable(Machine.Instruction[] code, SlotTable slots) {
+        this.code = code;
+        this.slots = slots;
+    }
+
+    /**
+     * Resolve a list of instructions and package it for execution.
+     * The list is copied, so later changes to it have no effect here.
+     *
+     * @param program a list of Machine instructions
+     * @return the ready-to-run program
+     * @see Machine#resolve(List, SlotTable)
+     */
+    public static Executable of(List<Machine.Instruction> program) {
+        SlotTable slots = new SlotTable();
+        List<Machine.Instruction> resolved = Machine.resolve(program, slots);
+        return new Executable(resolved.toArray(new Machine.Instruction[0]), slots);
+    }
+
+    /**
+     * @return the instructions, in order, as a read-only list
+     */
+    public List<Machine.Instruction> instructions() {
+        return Collections.unmodifiableList(Arrays.asList(this.code));
+    }
+
+    /**
+     * @return the number of instructions in the program
+     */
+    public int length() {
+        return this.code.length;
+    }
+
+    /**
+     * @return the number of variable slots a frame for this program needs
+     */
+    public int slotCount() {
+        return this.slots.size();
+    }
+
+    /**
+     * Get the name of the variable kept in a slot.
+     *
+     * @param slot the slot number
+     * @return the variable name
+     */
+    public String nameOf(int slot) {
+        return this.slots.nameOf(slot);
+    }
+
+    /**
+     * Package access to the instructions for the Machine's run loop.
+     */
+    Machine.Instruction[] code() {
+        return this.code;
+    }
+
+    /**
+     * Package access to the slot table for the Machine's result views.
+     */
+    SlotTable slots() {
+        return this.slots;
+    }
+}
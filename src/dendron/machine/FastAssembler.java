@@ -0,0 +1,427 @@
+package dendron.machine;
+
+import dendron.DendronSyntaxException;
+import dendron.Errors;
+import dendron.SourcePosition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An assembler for large Machine code files. It reads the same text as
+ * {@link InstructionReader}, but works on the bytes of the file directly
+ * and builds {@link Bytecode} rather than a list of instruction objects:
+ * <ul>
+ *     <li>the file is read through a channel in large blocks, or mapped
+ *     into memory, with no character decoding;</li>
+ *     <li>mnemonics are recognized from their bytes without making a
+ *     String;</li>
+ *     <li>numbers are converted as their digits are read, and a variable
+ *     name only becomes a String the first time it appears;</li>
+ *     <li>the instructions go straight into a growing int array.</li>
+ * </ul>
+ * Unlike InstructionReader it stops at the first error, which it reports
+ * with its line and column. Columns count bytes.
+ * <p>
+ * An assembler holds the state of one assembly, so each call to the
+ * static methods uses a new one.
+ *
+ * @author Pedro Breton
+ */
+public final class FastAssembler {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final long MAP_SEGMENT = 1L << 30;
+
+    private static final long KEY_PUSH = key("PUSH");
+    private static final long KEY_LOAD = key("LOAD");
+    private static final long KEY_STORE = key("STORE");
+    private static final long KEY_PRINT = key("PRINT");
+    private static final long KEY_ADD = key("ADD");
+    private static final long KEY_SUB = key("SUB");
+    private static final long KEY_MUL = key("MUL");
+    private static final long KEY_DIV = key("DIV");
+    private static final long KEY_NEG = key("NEG");
+    private static final long KEY_SQRT = key("SQRT");
+    private static final long KEY_DUP = key("DUP");
+
+    private byte[] token = new byte[64];
+    private int tokenLength;
+    private int tokenIndex = -1;
+    private int tokenLine;
+    private int tokenColumn;
+    private int line = 1;
+    private int column;
+
+    private int pending = -1;
+    private int pendingIndex;
+    private int pendingLine;
+    private int pendingColumn;
+
+    private int[] code = new int[1024];
+    private int length;
+
+    private int[] constantKeys = new int[64];
+    private int[] constantIndexes = filled(64);
+    private int[] constants = new int[16];
+    private int constantCount;
+
+    private int[] nameIndexes = filled(64);
+    private byte[][] names = new byte[16][];
+    private final SlotTable slots = new SlotTable();
+
+    private FastAssembler() {
+    }
+
+    /**
+     * Assemble a file, reading it in large blocks.
+     *
+     * @param assyFile the text file containing the assembly code
+     * @return the assembled program
+     * @throws IOException            if the file cannot be read
+     * @throws DendronSyntaxException if the file holds something that is
+     *                                not an instruction; it carries the line and column
+     */
+    public static Bytecode assemble(Path assyFile) throws IOException {
+        return assemble(assyFile, false);
+    }
+
+    /**
+     * Assemble a file.
+     *
+     * @param assyFile the text file containing the assembly code
+     * @param mapped   whether to map the file into memory rather than
+     *                 read it in blocks
+     * @return the assembled program
+     * @throws IOException            if the file cannot be read
+     * @throws DendronSyntaxException if the file holds something that is
+     *                                not an instruction; it carries the line and column
+     */
+    public static Bytecode assemble(Path assyFile, boolean mapped) throws IOException {
+        try (FileChannel channel = FileChannel.open(assyFile, StandardOpenOption.READ)) {
+            if (!mapped) {
+                return assemble(channel);
+            }
+            FastAssembler assembler = new FastAssembler();
+            byte[] block = new byte[BLOCK_SIZE];
+            long size = channel.size();
+            for (long offset = 0; offset < size; offset += MAP_SEGMENT) {
+                ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(MAP_SEGMENT, size - offset));
+                while (segment.hasRemaining()) {
+                    // Bulk copies out of the mapping are far cheaper than single-byte gets.
+                    int count = Math.min(block.length, segment.remaining());
+                    segment.get(block, 0, count);
+                    assembler.feed(block, count);
+                }
+            }
+            return assembler.finish();
+        }
+    }
+
+    /**
+     * Assemble everything that can be read from a channel. The channel
+     * is not closed.
+     *
+     * @param channel the source of the assembly code
+     * @return the assembled program
+     * @throws IOException            if the channel cannot be read
+     * @throws DendronSyntaxException if the text holds something that is
+     *                                not an instruction; it carries the line and column
+     */
+    public static Bytecode assemble(ReadableByteChannel channel) throws IOException {
+        FastAssembler assembler = new FastAssembler();
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        while (channel.read(block) >= 0) {
+            assembler.feed(block.array(), block.position());
+            block.clear();
+        }
+        return assembler.finish();
+    }
+
+    /**
+     * Scan the first count bytes of a block of text. Tokens may run on
+     * from one block to the next.
+     */
+    private void feed(byte[] block, int count) {
+        // The scanner state lives in locals in this loop, and is only
+        // written back when a token ends or the block runs out.
+        byte[] text = this.token;
+        int used = this.tokenLength;
+        int col = this.column;
+        for (int i = 0; i < count; ++i) {
+            byte b = block[i];
+            ++col;
+            if (b != ' ' && b != '\n' && b != '\t' && b != '\r' && b != '\f' && b != 0x0B) {
+                if (used == 0) {
+                    ++this.tokenIndex;
+                    this.tokenLine = this.line;
+                    this.tokenColumn = col;
+                } else if (used == text.length) {
+                    text = this.token = Arrays.copyOf(text, 2 * used);
+                }
+                text[used++] = b;
+                continue;
+            }
+            if (used > 0) {
+                this.tokenLength = used;
+                token();
+                used = 0;
+            }
+            if (b == '\n') {
+                ++this.line;
+                col = 0;
+            }
+        }
+        this.tokenLength = used;
+        this.column = col;
+    }
+
+    /**
+     * Finish the last token and package the program.
+     */
+    private Bytecode finish() {
+        endToken();
+        if (this.pending >= 0) {
+            throw new DendronSyntaxException(Errors.Type.PREMATURE_END, "missing operand",
+                    SourcePosition.of(this.pendingIndex, this.pendingLine, this.pendingColumn));
+        }
+        return Bytecode.of(Arrays.copyOf(this.code, this.length),
+                Arrays.copyOf(this.constants, this.constantCount), this.slots);
+    }
+
+    private void endToken() {
+        if (this.tokenLength > 0) {
+            token();
+            this.tokenLength = 0;
+        }
+    }
+
+    /**
+     * Handle one complete token: a mnemonic, or the operand of the
+     * mnemonic before it.
+     */
+    private void token() {
+        if (this.pending == Bytecode.PUSH) {
+            emit(Bytecode.PUSH | constant(number()) << Bytecode.OPCODE_BITS);
+            this.pending = -1;
+        } else if (this.pending >= 0) {
+            emit(this.pending | slot() << Bytecode.OPCODE_BITS);
+            this.pending = -1;
+        } else {
+            int opcode = mnemonic();
+            if (opcode == Bytecode.PUSH || opcode == Bytecode.LOAD || opcode == Bytecode.STORE) {
+                this.pending = opcode;
+                this.pendingIndex = this.tokenIndex;
+                this.pendingLine = this.tokenLine;
+                this.pendingColumn = this.tokenColumn;
+            } else if (opcode >= 0) {
+                emit(opcode);
+            } else {
+                throw new DendronSyntaxException(Errors.Type.UNKNOWN_STATEMENT, text(), position());
+            }
+        }
+    }
+
+    private void emit(int word) {
+        if (this.length == this.code.length) {
+            this.code = Arrays.copyOf(this.code, 2 * this.length);
+        }
+        this.code[this.length++] = word;
+    }
+
+    private SourcePosition position() {
+        return SourcePosition.of(this.tokenIndex, this.tokenLine, this.tokenColumn);
+    }
+
+    private String text() {
+        return new String(this.token, 0, this.tokenLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Pack up to eight bytes of a mnemonic into a long.
+     */
+    private static long key(String mnemonic) {
+        long key = 0;
+        for (int i = 0; i < mnemonic.length(); ++i) {
+            key = key << 8 | mnemonic.charAt(i);
+        }
+        return key;
+    }
+
+    /**
+     * @return the opcode the current token names, or -1 if none
+     */
+    private int mnemonic() {
+        if (this.tokenLength < 3 || this.tokenLength > 5) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 0; i < this.tokenLength; ++i) {
+            key = key << 8 | (this.token[i] & 0xFF);
+        }
+        if (this.tokenLength == 3) {
+            if (key == KEY_ADD) {
+                return Bytecode.ADD;
+            } else if (key == KEY_SUB) {
+                return Bytecode.SUB;
+            } else if (key == KEY_MUL) {
+                return Bytecode.MUL;
+            } else if (key == KEY_DIV) {
+                return Bytecode.DIV;
+            } else if (key == KEY_NEG) {
+                return Bytecode.NEG;
+            } else if (key == KEY_DUP) {
+                return Bytecode.DUP;
+            }
+        } else if (this.tokenLength == 4) {
+            if (key == KEY_PUSH) {
+                return Bytecode.PUSH;
+            } else if (key == KEY_LOAD) {
+                return Bytecode.LOAD;
+            } else if (key == KEY_SQRT) {
+                return Bytecode.SQRT;
+            }
+        } else if (key == KEY_STORE) {
+            return Bytecode.STORE;
+        } else if (key == KEY_PRINT) {
+            return Bytecode.PRINT;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the value of the current token as a decimal int
+     */
+    private int number() {
+        int i = 0;
+        boolean negative = false;
+        if (this.token[0] == '-' || this.token[0] == '+') {
+            negative = this.token[0] == '-';
+            i = 1;
+        }
+        if (i == this.tokenLength) {
+            throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE, text(), position());
+        }
+        long value = 0;
+        for (; i < this.tokenLength; ++i) {
+            int digit = this.token[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE, text(), position());
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE, text(), position());
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE, text(), position());
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return the index of a value in the constant pool, adding it if new
+     */
+    private int constant(int value) {
+        int mask = this.constantIndexes.length - 1;
+        int h = mix(value) & mask;
+        while (this.constantIndexes[h] >= 0) {
+            if (this.constantKeys[h] == value) {
+                return this.constantIndexes[h];
+            }
+            h = (h + 1) & mask;
+        }
+        int index = this.constantCount++;
+        if (index == Bytecode.OPERAND_LIMIT) {
+            throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE, "too many constants", position());
+        }
+        if (index == this.constants.length) {
+            this.constants = Arrays.copyOf(this.constants, 2 * index);
+        }
+        this.constants[index] = value;
+        this.constantKeys[h] = value;
+        this.constantIndexes[h] = index;
+        if (2 * this.constantCount > this.constantIndexes.length) {
+            int[] oldKeys = this.constantKeys;
+            int[] oldIndexes = this.constantIndexes;
+            this.constantKeys = new int[2 * oldKeys.length];
+            this.constantIndexes = filled(2 * oldKeys.length);
+            mask = this.constantIndexes.length - 1;
+            for (int j = 0; j < oldKeys.length; ++j) {
+                if (oldIndexes[j] >= 0) {
+                    int k = mix(oldKeys[j]) & mask;
+                    while (this.constantIndexes[k] >= 0) {
+                        k = (k + 1) & mask;
+                    }
+                    this.constantKeys[k] = oldKeys[j];
+                    this.constantIndexes[k] = oldIndexes[j];
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the slot of the variable named by the current token,
+     * giving it the next slot if it is new
+     */
+    private int slot() {
+        int mask = this.nameIndexes.length - 1;
+        int h = hash(this.token, this.tokenLength) & mask;
+        while (this.nameIndexes[h] >= 0) {
+            byte[] name = this.names[this.nameIndexes[h]];
+            if (Arrays.equals(name, 0, name.length, this.token, 0, this.tokenLength)) {
+                return this.nameIndexes[h];
+            }
+            h = (h + 1) & mask;
+        }
+        int slot = this.slots.slotOf(text());
+        if (slot == Bytecode.OPERAND_LIMIT) {
+            throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE, "too many variables", position());
+        }
+        if (slot == this.names.length) {
+            this.names = Arrays.copyOf(this.names, 2 * slot);
+        }
+        this.names[slot] = Arrays.copyOf(this.token, this.tokenLength);
+        this.nameIndexes[h] = slot;
+        if (2 * (slot + 1) > this.nameIndexes.length) {
+            this.nameIndexes = filled(2 * this.nameIndexes.length);
+            mask = this.nameIndexes.length - 1;
+            for (int s = 0; s <= slot; ++s) {
+                int k = hash(this.names[s], this.names[s].length) & mask;
+                while (this.nameIndexes[k] >= 0) {
+                    k = (k + 1) & mask;
+                }
+                this.nameIndexes[k] = s;
+            }
+        }
+        return slot;
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    private static int hash(byte[] bytes, int length) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < length; ++i) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        return h ^ h >>> 16;
+    }
+
+    private static int[] filled(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+}
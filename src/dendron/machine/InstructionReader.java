@@ -1,11 +1,12 @@
 package dendron.machine;
 
-import dendron.machine.Machine;
+import dendron.DendronException;
+import dendron.Errors;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 /**
  * Assemble instructions from a file.
@@ -15,32 +16,34 @@ import java.util.function.Function;
  */
 public class InstructionReader {
 
-    private static Map<String, Function<Scanner, Machine.Instruction>> gen
-            = new HashMap<String, Function<Scanner, Machine.Instruction>>() {{
-        put("PUSH", in -> {
+    private static Map<String, BiFunction<Scanner, SlotTable, Machine.Instruction>> gen
+            = new HashMap<String, BiFunction<Scanner, SlotTable, Machine.Instruction>>() {{
+        put("PUSH", (in, slots) -> {
             int i = in.nextInt();
             return new Machine.PushConst(i);
         });
-        put("LOAD", in -> {
+        put("LOAD", (in, slots) -> {
             String v = in.next();
-            return new Machine.Load(v);
+            return new Machine.Load(v, slots.slotOf(v));
         });
-        put("STORE", in -> {
+        put("STORE", (in, slots) -> {
             String v = in.next();
-            return new Machine.Store(v);
+            return new Machine.Store(v, slots.slotOf(v));
         });
-        put("ADD", in -> new Machine.Add());
-        put("SUB", in -> new Machine.Subtract());
-        put("MUL", in -> new Machine.Multiply());
-        put("DIV", in -> new Machine.Divide());
-        put("NEG", in -> new Machine.Negate());
-        put("SQRT", in -> new Machine.SquareRoot());
-        put("PRINT", in -> new Machine.Print());
+        put("ADD", (in, slots) -> new Machine.Add());
+        put("SUB", (in, slots) -> new Machine.Subtract());
+        put("MUL", (in, slots) -> new Machine.Multiply());
+        put("DIV", (in, slots) -> new Machine.Divide());
+        put("NEG", (in, slots) -> new Machine.Negate());
+        put("SQRT", (in, slots) -> new Machine.SquareRoot());
+        put("PRINT", (in, slots) -> new Machine.Print());
+        put("DUP", (in, slots) -> new Machine.Duplicate());
     }};
 
     /**
      * Read instructions from the named file and translate them
-     * to internal form.
+     * to internal form. Variable names are resolved to Machine
+     * slots as they are read.
      *
      * @param assyFile the name of the text file containing the assembly code
      * @return a list of Machine.Instruction objects, ready to execute
@@ -48,11 +51,12 @@ public class InstructionReader {
     public static List<Machine.Instruction> assemble(String assyFile) {
         try (FileInputStream fileStr = new FileInputStream(assyFile)) {
             List<Machine.Instruction> result = new LinkedList<>();
+            SlotTable slots = new SlotTable();
             Scanner in = new Scanner(fileStr);
             while (in.hasNext()) {
                 String mnemonic = in.next();
                 if (gen.containsKey(mnemonic)) {
-                    result.add(gen.get(mnemonic).apply(in));
+                    result.add(gen.get(mnemonic).apply(in, slots));
                 } else {
                     System.err.println("Illegal assembly instr " + mnemonic);
                 }
@@ -64,6 +68,20 @@ public class InstructionReader {
         return null;
     }
 
+    /**
+     * Read instructions from the named file, translate them to internal
+     * form, and run them through a peephole optimizer.
+     *
+     * @param assyFile  the name of the text file containing the assembly code
+     * @param optimizer the optimizer to use; its rule hit counts are updated
+     * @return the optimized instructions, or null if the file could not be read
+     * @see #assemble(String)
+     */
+    public static List<Machine.Instruction> assemble(String assyFile, PeepholeOptimizer optimizer) {
+        List<Machine.Instruction> code = assemble(assyFile);
+        return code == null ? null : optimizer.optimize(code);
+    }
+
     /**
      * Assemble and execute some Dendron machine code.
      *
@@ -76,6 +94,10 @@ public class InstructionReader {
             System.exit(1);
         }
         List<Machine.Instruction> code = assemble(args[0]);
-        Machine.execute(code);
+        try {
+            Machine.execute(code);
+        } catch (DendronException de) {
+            Errors.abort(de);
+        }
     }
 }
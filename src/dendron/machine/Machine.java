@@ -1,43 +1,50 @@
 package dendron.machine;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Stack;
 import java.util.Map;
-import java.util.HashMap;
 
+import dendron.DendronRuntimeException;
 import dendron.Errors;
+import dendron.OutputSink;
 
 import static java.lang.Math.sqrt;
 
 /**
  * An abstraction of a computing machine that reads instructions
- * and executes them. It has an instruction set, a symbol table
- * for variables (instead of general-purpose memory), and a
+ * and executes them. It has an instruction set, a frame of numbered
+ * variable slots (instead of general-purpose memory), and a
  * value stack on which calculations are performed.
  * <p>
- * (Everything is static to avoid the need to master the subtleties
- * of nested class instantiation or to pass the symbol table and
- * stack into every instruction when it executes.)
+ * Variables are referred to by name in the source and in the assembly
+ * listing, but before a program runs every LOAD and STORE is bound to a
+ * slot by {@link #resolve(List, SlotTable)}, so no names are looked up
+ * while it executes.
  * <p>
- * THIS CLASS IS INCOMPLETE. The student must add code to it.
+ * Each Machine instance owns its own stack and variable frame, so
+ * separate instances may run programs on separate threads at the same
+ * time. Instructions and {@link Executable}s hold no execution state
+ * and can be shared freely between them. A single instance must only be
+ * used by one thread at a time.
+ * <p>
+ * What a program prints goes to the Machine's {@link OutputSink}, which
+ * is flushed at the end of every run. A {@link Profiler} may be attached
+ * to see where the time of a run goes.
  *
  * @author James Heliotis
  * @author Pedro Breton
  */
 public class Machine {
 
-    /**
-     * Do not instatiate this class.
-     */
-    private Machine() {
-    }
-
     public static interface Instruction {
         /**
          * Run this instruction on the Machine, using the Machine's
-         * value stack and symbol table.
+         * value stack and variable frame.
+         *
+         * @param machine the Machine running the program
          */
-        void execute();
+        void execute(Machine machine);
 
         /**
          * Show the instruction using text so it can be understood
@@ -49,17 +56,121 @@ public class Machine {
         String toString();
     }
 
-    private static Map<String, Integer> table = null;
-    private static Stack<Integer> stack = null;
+    /**
+     * What comes before each printed value on its line of standard output
+     */
+    public static final String PRINT_PREFIX = "*** ";
+
+    private final OperandStack stack;
+    private final OutputSink output;
+    private Profiler profiler;
+    private SlotTable slots;
+    private int[] frame;
+    private BitSet initialized;
+
+    /**
+     * Create a Machine with an empty stack and no variables, that shows
+     * what programs print on standard output.
+     */
+    public Machine() {
+        this(OutputSink.console(PRINT_PREFIX));
+    }
+
+    /**
+     * Create a Machine with an empty stack and no variables.
+     *
+     * @param output where the values programs print go
+     */
+    public Machine(OutputSink output) {
+        this.output = output;
+        this.stack = new OperandStack();
+        this.slots = new SlotTable();
+        this.frame = new int[0];
+        this.initialized = new BitSet();
+    }
+
+    /**
+     * Profile the programs this Machine runs from now on, or stop
+     * profiling them.
+     *
+     * @param profiler where to record the profile, or null for none
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
 
     /**
      * Reset the Machine to a pristine state.
      *
-     * @see Machine#execute
+     * @param symbols the variable slots used by the program about to run
+     * @see Machine#run
+     */
+    private void reset(SlotTable symbols) {
+        this.stack.clear();
+        this.slots = symbols;
+        if (this.frame.length != symbols.size()) {
+            this.frame = new int[symbols.size()];
+        }
+        this.initialized.clear();
+    }
+
+    /**
+     * Give every LOAD and STORE in a program a variable slot. Instructions
+     * that were already bound by an earlier pass keep their slots; the
+     * others are numbered densely after them in order of appearance.
+     *
+     * @param program a list of Machine instructions
+     * @param symbols the table to record the slots in
+     * @return the program with every variable reference bound to a slot;
+     * this is the given list itself if nothing needed binding
+     */
+    public static List<Instruction> resolve(List<Instruction> program, SlotTable symbols) {
+        boolean unbound = false;
+        for (Instruction instr : program) {
+            if (instr instanceof Load) {
+                Load load = (Load) instr;
+                if (load.slot >= 0) {
+                    symbols.bind(load.name, load.slot);
+                } else {
+                    unbound = true;
+                }
+            } else if (instr instanceof Store) {
+                Store store = (Store) instr;
+                if (store.slot >= 0) {
+                    symbols.bind(store.name, store.slot);
+                } else {
+                    unbound = true;
+                }
+            }
+        }
+        if (!unbound) {
+            return program;
+        }
+        List<Instruction> result = new ArrayList<>(program.size());
+        for (Instruction instr : program) {
+            if (instr instanceof Load && ((Load) instr).slot < 0) {
+                String name = ((Load) instr).name;
+                result.add(new Load(name, symbols.slotOf(name)));
+            } else if (instr instanceof Store && ((Store) instr).slot < 0) {
+                String name = ((Store) instr).name;
+                result.add(new Store(name, symbols.slotOf(name)));
+            } else {
+                result.add(instr);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Give every LOAD and STORE in a program a variable slot, starting
+     * from an empty table.
+     *
+     * @param program a list of Machine instructions
+     * @return the program with every variable reference bound to a slot
+     * @see #resolve(List, SlotTable)
      */
-    private static void reset() {
-        stack = new Stack<>();
-        table = new HashMap<>();
+    public static List<Instruction> resolve(List<Instruction> program) {
+        return resolve(program, new SlotTable());
     }
 
     /**
@@ -87,15 +198,184 @@ public class Machine {
      * @param program a list of Machine instructions
      */
     public static void execute(List<Instruction> program) {
-        reset();
+        Machine machine = new Machine();
         System.out.println("Executing compiled code...");
-        for (Instruction instr : program) {
-            instr.execute();
-        }
+        machine.run(Executable.of(program));
+        System.out.println("Machine: execution ended with " +
+                machine.getStackSize() + " items left on the stack.");
+        System.out.println();
+        Errors.dump(machine.getSymbolTable());
+    }
+
+    /**
+     * Run an encoded program, then report on the final size of the
+     * stack and the contents of the symbol table, just as
+     * {@link #execute(List)} does.
+     *
+     * @param program the encoded program
+     */
+    public static void execute(Bytecode program) {
+        Machine machine = new Machine();
+        System.out.println("Executing compiled code...");
+        machine.run(program);
         System.out.println("Machine: execution ended with " +
-                stack.size() + " items left on the stack.");
+                machine.getStackSize() + " items left on the stack.");
         System.out.println();
-        Errors.dump(table);
+        Errors.dump(machine.getSymbolTable());
+    }
+
+    /**
+     * Run a program on this Machine, starting from an empty stack
+     * and no variables. Nothing is printed apart from the program's
+     * own PRINT output.
+     *
+     * @param program the resolved program
+     */
+    public void run(Executable program) {
+        reset(program.slots());
+        try {
+            if (this.profiler != null) {
+                this.profiler.run(this, program);
+                return;
+            }
+            for (Instruction instr : program.code()) {
+                instr.execute(this);
+            }
+        } finally {
+            this.output.flush();
+        }
+    }
+
+    /**
+     * Run an encoded program on this Machine, starting from an empty
+     * stack and no variables. The result is the same as running the
+     * instructions it was encoded from, but the instructions are
+     * dispatched by a switch over the code array, and the stack is a
+     * local array sized for the program, so nothing is called or
+     * checked per instruction that the encoding has already settled.
+     * <p>
+     * When the Machine has a {@link Profiler}, the instructions the
+     * program was encoded from are run one at a time instead, so that
+     * each one can be timed.
+     *
+     * @param program the encoded program
+     * @see Bytecode
+     */
+    public void run(Bytecode program) {
+        reset(program.slots());
+        try {
+            if (this.profiler != null) {
+                this.profiler.run(this, program);
+                return;
+            }
+            interpret(program);
+        } finally {
+            this.output.flush();
+        }
+    }
+
+    /**
+     * The dispatch loop of {@link #run(Bytecode)}.
+     */
+    private void interpret(Bytecode program) {
+        final int[] code = program.code();
+        final int[] constants = program.constants();
+        final int[] frame = this.frame;
+        final BitSet initialized = this.initialized;
+        final OutputSink output = this.output;
+        final int[] stack = new int[program.maxStackDepth()];
+        final int end = program.safeLength();
+        int sp = 0;
+        for (int pc = 0; pc < end; ++pc) {
+            int word = code[pc];
+            switch (word & Bytecode.OPCODE_MASK) {
+                case Bytecode.PUSH:
+                    stack[sp++] = constants[word >>> Bytecode.OPCODE_BITS];
+                    break;
+                case Bytecode.LOAD: {
+                    int slot = word >>> Bytecode.OPCODE_BITS;
+                    if (!initialized.get(slot)) {
+                        throw new DendronRuntimeException(Errors.Type.UNINITIALIZED,
+                                this.slots.nameOf(slot) + " is not initialized");
+                    }
+                    stack[sp++] = frame[slot];
+                    break;
+                }
+                case Bytecode.STORE: {
+                    int slot = word >>> Bytecode.OPCODE_BITS;
+                    frame[slot] = stack[--sp];
+                    initialized.set(slot);
+                    break;
+                }
+                case Bytecode.PRINT:
+                    output.accept(stack[--sp]);
+                    break;
+                case Bytecode.ADD:
+                    --sp;
+                    stack[sp - 1] += stack[sp];
+                    break;
+                case Bytecode.SUB:
+                    --sp;
+                    stack[sp - 1] -= stack[sp];
+                    break;
+                case Bytecode.MUL:
+                    --sp;
+                    stack[sp - 1] *= stack[sp];
+                    break;
+                case Bytecode.DIV:
+                    --sp;
+                    if (stack[sp] == 0) {
+                        throw new DendronRuntimeException(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
+                    }
+                    stack[sp - 1] /= stack[sp];
+                    break;
+                case Bytecode.NEG:
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case Bytecode.SQRT:
+                    if (stack[sp - 1] < 0) {
+                        throw new DendronRuntimeException(Errors.Type.ILLEGAL_VALUE, "Negative square root");
+                    }
+                    stack[sp - 1] = (int) sqrt(stack[sp - 1]);
+                    break;
+                case Bytecode.DUP:
+                    stack[sp] = stack[sp - 1];
+                    ++sp;
+                    break;
+                default:
+                    throw new IllegalStateException("bad opcode at " + pc);
+            }
+        }
+        for (int i = 0; i < sp; ++i) {
+            this.stack.push(stack[i]);
+        }
+        if (end < code.length) {
+            throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+        }
+    }
+
+    /**
+     * Resolve and run a list of instructions on this Machine.
+     *
+     * @param program a list of Machine instructions
+     * @see #run(Executable)
+     */
+    public void run(List<Instruction> program) {
+        run(Executable.of(program));
+    }
+
+    /**
+     * @return the number of values left on the stack by the last run
+     */
+    public int getStackSize() {
+        return this.stack.size();
+    }
+
+    /**
+     * @return the variables set by the last run, by name
+     */
+    public Map<String, Integer> getSymbolTable() {
+        return this.slots.toMap(this.frame, this.initialized);
     }
 
     /**
@@ -105,26 +385,58 @@ public class Machine {
         /**
          * stores name of target variable
          */
-        private String name;
+        private final String name;
+
+        /**
+         * the target variable's slot, or -1 if not yet resolved
+         */
+        private final int slot;
 
         /**
-         * Create a STORE instruction
+         * Create a STORE instruction that has not yet been given a slot.
          *
          * @param ident the name of the target variable
+         * @see Machine#resolve(List, SlotTable)
          */
         public Store(String ident) {
+            this(ident, -1);
+        }
+
+        /**
+         * Create a STORE instruction bound to a variable slot.
+         *
+         * @param ident the name of the target variable
+         * @param slot  the slot the variable's value is kept in
+         */
+        public Store(String ident, int slot) {
             this.name = ident;
+            this.slot = slot;
+        }
+
+        /**
+         * @return the name of the target variable
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the target variable's slot, or -1 if not yet resolved
+         */
+        public int getSlot() {
+            return this.slot;
         }
 
         /**
          * Run the microsteps for the STORE instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 1) {
-                table.put(this.name, stack.pop());
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 1) {
+                machine.frame[this.slot] = machine.stack.pop();
+                machine.initialized.set(this.slot);
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
         }
 
@@ -149,12 +461,19 @@ public class Machine {
             this.constant = constant;
         }
 
+        /**
+         * @return the value this instruction pushes
+         */
+        public int getConstant() {
+            return this.constant;
+        }
+
         /**
          * Run the microsteps for the PushConst instruction.
          */
         @Override
-        public void execute() {
-            stack.push(this.constant);
+        public void execute(Machine machine) {
+            machine.stack.push(this.constant);
         }
 
         /**
@@ -168,6 +487,33 @@ public class Machine {
         }
     }
 
+    /**
+     * The DUP instruction
+     */
+    public static class Duplicate implements Instruction {
+        /**
+         * Run the microsteps for the DUP instruction.
+         */
+        @Override
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 1) {
+                machine.stack.push(machine.stack.peek());
+            } else {
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+            }
+        }
+
+        /**
+         * Show the DUP instruction as plain text.
+         *
+         * @return "DUP"
+         */
+        @Override
+        public String toString() {
+            return "DUP";
+        }
+    }
+
     /**
      * The PRINT instruction
      */
@@ -177,12 +523,11 @@ public class Machine {
          * Run the microsteps for the PRINT instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 1) {
-                int val = stack.pop();
-                System.out.printf("*** %d\n", val);
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 1) {
+                machine.output.accept(machine.stack.pop());
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
         }
 
@@ -209,13 +554,13 @@ public class Machine {
          * Run the microsteps for the ADD instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 2) {
-                int op2 = stack.pop();
-                int op1 = stack.pop();
-                stack.push(op1 + op2);
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 2) {
+                int op2 = machine.stack.pop();
+                int op1 = machine.stack.pop();
+                machine.stack.push(op1 + op2);
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
         }
 
@@ -238,13 +583,13 @@ public class Machine {
          * Run the microsteps for the SUB instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 2) {
-                int op2 = stack.pop();
-                int op1 = stack.pop();
-                stack.push(op1 - op2);
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 2) {
+                int op2 = machine.stack.pop();
+                int op1 = machine.stack.pop();
+                machine.stack.push(op1 - op2);
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
         }
 
@@ -268,17 +613,17 @@ public class Machine {
          * Run the microsteps for the DIV instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 2) {
-                int op2 = stack.pop();
-                int op1 = stack.pop();
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 2) {
+                int op2 = machine.stack.pop();
+                int op1 = machine.stack.pop();
                 if (op2 != 0) {
-                    stack.push(op1 / op2);
+                    machine.stack.push(op1 / op2);
                 } else {
-                    Errors.report(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
+                    throw new DendronRuntimeException(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
                 }
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
         }
 
@@ -301,13 +646,13 @@ public class Machine {
          * Run the microsteps for the MUL instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 2) {
-                int op2 = stack.pop();
-                int op1 = stack.pop();
-                stack.push(op1 * op2);
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 2) {
+                int op2 = machine.stack.pop();
+                int op1 = machine.stack.pop();
+                machine.stack.push(op1 * op2);
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
         }
 
@@ -326,22 +671,53 @@ public class Machine {
      * The LOAD instruction
      */
     public static class Load implements Instruction {
-        private String name;
+        private final String name;
+        private final int slot;
 
+        /**
+         * Create a LOAD instruction that has not yet been given a slot.
+         *
+         * @param ident the name of the source variable
+         * @see Machine#resolve(List, SlotTable)
+         */
         public Load(String ident) {
+            this(ident, -1);
+        }
+
+        /**
+         * Create a LOAD instruction bound to a variable slot.
+         *
+         * @param ident the name of the source variable
+         * @param slot  the slot the variable's value is kept in
+         */
+        public Load(String ident, int slot) {
             this.name = ident;
+            this.slot = slot;
+        }
+
+        /**
+         * @return the name of the source variable
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the source variable's slot, or -1 if not yet resolved
+         */
+        public int getSlot() {
+            return this.slot;
         }
 
         /**
          * Run the microsteps for the LOAD instruction.
          */
         @Override
-        public void execute() {
-            if (table.containsKey(this.name)) {
-                int val = table.get(this.name);
-                stack.push(val);
+        public void execute(Machine machine) {
+            if (machine.initialized.get(this.slot)) {
+                machine.stack.push(machine.frame[this.slot]);
             } else {
-                Errors.report(Errors.Type.UNINITIALIZED, "Variable is not initialized");
+                throw new DendronRuntimeException(Errors.Type.UNINITIALIZED, this.name + " is not initialized");
             }
 
         }
@@ -370,12 +746,12 @@ public class Machine {
          * Run the microsteps for the NEG instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 1) {
-                int op1 = stack.pop();
-                stack.push(-op1);
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 1) {
+                int op1 = machine.stack.pop();
+                machine.stack.push(-op1);
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
 
         }
@@ -399,16 +775,16 @@ public class Machine {
          * Run the microsteps for the SQRT instruction.
          */
         @Override
-        public void execute() {
-            if (stack.size() >= 1) {
-                int op1 = stack.pop();
+        public void execute(Machine machine) {
+            if (machine.stack.size() >= 1) {
+                int op1 = machine.stack.pop();
                 if (op1>=0) {
-                    stack.push((int) sqrt(op1));
+                    machine.stack.push((int) sqrt(op1));
                 } else {
-                    Errors.report(Errors.Type.ILLEGAL_VALUE, "Negative square root");
+                    throw new DendronRuntimeException(Errors.Type.ILLEGAL_VALUE, "Negative square root");
                 }
             } else {
-                Errors.report(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
+                throw new DendronRuntimeException(Errors.Type.PREMATURE_END, "Program has reached PREMATURE_END");
             }
         }
 
@@ -0,0 +1,73 @@
+package dendron.machine;
+
+import java.util.Arrays;
+
+/**
+ * The Machine's value stack. Values are kept unboxed in a growable
+ * int array, so pushing and popping never allocates once the array
+ * has reached the program's maximum stack depth.
+ * <p>
+ * Like the rest of the Machine, no checks are made here; instructions
+ * are expected to look at {@link #size()} before popping.
+ *
+ * @author Pedro Breton
+ */
+final class OperandStack {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] values;
+    private int top;
+
+    /**
+     * Create an empty stack.
+     */
+    OperandStack() {
+        this.values = new int[INITIAL_CAPACITY];
+        this.top = 0;
+    }
+
+    /**
+     * Put a value on top of the stack, growing the storage if needed.
+     *
+     * @param value the value to push
+     */
+    void push(int value) {
+        if (this.top == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        }
+        this.values[this.top++] = value;
+    }
+
+    /**
+     * Remove the value on top of the stack.
+     *
+     * @return the value that was on top
+     */
+    int pop() {
+        return this.values[--this.top];
+    }
+
+    /**
+     * Look at the value on top of the stack without removing it.
+     *
+     * @return the value on top
+     */
+    int peek() {
+        return this.values[this.top - 1];
+    }
+
+    /**
+     * @return the number of values currently on the stack
+     */
+    int size() {
+        return this.top;
+    }
+
+    /**
+     * Empty the stack, keeping its storage for reuse.
+     */
+    void clear() {
+        this.top = 0;
+    }
+}
@@ -0,0 +1,250 @@
+package dendron.machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A peephole optimizer for Machine code. It looks at adjacent pairs of
+ * instructions and replaces them by shorter or cheaper equivalents.
+ * <p>
+ * Instructions are copied to the output one at a time, and after each
+ * one the rules are tried again on the end of the output, so a rewrite
+ * can expose another (PUSH 5 NEG NEG becomes PUSH -5 NEG, then PUSH 5)
+ * and the whole program is optimized in a single linear pass.
+ * <p>
+ * Since Machine programs have no jumps, the stack depth before every
+ * instruction is known. A rule that could hide a stack underflow is only
+ * used where the depth shows that no underflow can happen.
+ *
+ * @author Pedro Breton
+ */
+public class PeepholeOptimizer {
+
+    /**
+     * The rewrites this optimizer knows about.
+     */
+    public enum Rule {
+        /**
+         * PUSH c, NEG becomes PUSH -c
+         */
+        NEGATIVE_CONSTANT,
+        /**
+         * NEG, NEG is removed
+         */
+        DOUBLE_NEGATION,
+        /**
+         * STORE x, LOAD x becomes DUP, STORE x
+         */
+        STORE_RELOAD,
+        /**
+         * LOAD x, LOAD x becomes LOAD x, DUP
+         */
+        DUPLICATE_LOAD
+    }
+
+    /**
+     * Stack depth used once a program is known to underflow;
+     * no depth test after that point succeeds.
+     */
+    private static final int UNDERFLOWED = Integer.MIN_VALUE / 2;
+
+    private final Set<Rule> rules;
+    private final Map<Rule, Integer> hits;
+
+    private List<Machine.Instruction> out;
+    private int[] depths;
+
+    /**
+     * Create an optimizer that uses every rule.
+     */
+    public PeepholeOptimizer() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    /**
+     * Create an optimizer that uses only some of the rules.
+     *
+     * @param rules the rules to apply
+     */
+    public PeepholeOptimizer(Set<Rule> rules) {
+        this.rules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+        this.hits = new EnumMap<>(Rule.class);
+        for (Rule rule : Rule.values()) {
+            this.hits.put(rule, 0);
+        }
+    }
+
+    /**
+     * Optimize a program. The given list is not changed.
+     *
+     * @param program a list of Machine instructions
+     * @return the optimized instructions
+     */
+    public List<Machine.Instruction> optimize(List<Machine.Instruction> program) {
+        this.out = new ArrayList<>(program.size());
+        this.depths = new int[16];
+        for (Machine.Instruction instr : program) {
+            append(instr);
+            while (rewriteTail()) {
+                // keep going until the end of the output is stable
+            }
+        }
+        List<Machine.Instruction> result = this.out;
+        this.out = null;
+        this.depths = null;
+        return result;
+    }
+
+    /**
+     * @param rule one of the rules
+     * @return how many times the rule has been applied so far
+     */
+    public int getHits(Rule rule) {
+        return this.hits.get(rule);
+    }
+
+    /**
+     * @return the number of times each rule has been applied so far
+     */
+    public Map<Rule, Integer> getHitCounts() {
+        return new EnumMap<>(this.hits);
+    }
+
+    /**
+     * Show how often each rule was applied, one rule per line.
+     *
+     * @return the report text
+     */
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<Rule, Integer> entry : this.hits.entrySet()) {
+            text.append(String.format("%-18s %8d\n", entry.getKey(), entry.getValue()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Try each enabled rule on the last two output instructions.
+     *
+     * @return true if one of them made a change
+     */
+    private boolean rewriteTail() {
+        int n = this.out.size();
+        if (n < 2) {
+            return false;
+        }
+        Machine.Instruction first = this.out.get(n - 2);
+        Machine.Instruction second = this.out.get(n - 1);
+
+        if (first instanceof Machine.PushConst && second instanceof Machine.Negate
+                && use(Rule.NEGATIVE_CONSTANT)) {
+            replaceTail(new Machine.PushConst(-((Machine.PushConst) first).getConstant()));
+            return true;
+        }
+        if (first instanceof Machine.Negate && second instanceof Machine.Negate
+                && depthBefore(n - 2) >= 1 && use(Rule.DOUBLE_NEGATION)) {
+            replaceTail();
+            return true;
+        }
+        if (first instanceof Machine.Store && second instanceof Machine.Load
+                && sameVariable((Machine.Store) first, (Machine.Load) second)
+                && use(Rule.STORE_RELOAD)) {
+            replaceTail(new Machine.Duplicate(), first);
+            return true;
+        }
+        if (first instanceof Machine.Load && second instanceof Machine.Load
+                && sameVariable((Machine.Load) first, (Machine.Load) second)
+                && use(Rule.DUPLICATE_LOAD)) {
+            replaceTail(first, new Machine.Duplicate());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a rule is enabled, and count a hit if it is.
+     */
+    private boolean use(Rule rule) {
+        if (!this.rules.contains(rule)) {
+            return false;
+        }
+        this.hits.put(rule, this.hits.get(rule) + 1);
+        return true;
+    }
+
+    private static boolean sameVariable(Machine.Store store, Machine.Load load) {
+        return store.getName().equals(load.getName()) && store.getSlot() == load.getSlot();
+    }
+
+    private static boolean sameVariable(Machine.Load a, Machine.Load b) {
+        return a.getName().equals(b.getName()) && a.getSlot() == b.getSlot();
+    }
+
+    /**
+     * Replace the last two output instructions.
+     *
+     * @param replacement the instructions to put in their place
+     */
+    private void replaceTail(Machine.Instruction... replacement) {
+        this.out.remove(this.out.size() - 1);
+        this.out.remove(this.out.size() - 1);
+        for (Machine.Instruction instr : replacement) {
+            append(instr);
+        }
+    }
+
+    private void append(Machine.Instruction instr) {
+        int index = this.out.size();
+        if (index == this.depths.length) {
+            this.depths = Arrays.copyOf(this.depths, index * 2);
+        }
+        this.out.add(instr);
+        int before = depthBefore(index);
+        int[] effect = stackEffect(instr);
+        this.depths[index] = before < effect[0] ? UNDERFLOWED : before + effect[1];
+    }
+
+    /**
+     * @param index the position of an output instruction
+     * @return the stack depth just before it runs
+     */
+    private int depthBefore(int index) {
+        return index == 0 ? 0 : this.depths[index - 1];
+    }
+
+    private static final int[] PUSHES = {0, 1};
+    private static final int[] DUPLICATES = {1, 1};
+    private static final int[] UNARY = {1, 0};
+    private static final int[] POPS = {1, -1};
+    private static final int[] BINARY = {2, -1};
+    private static final int[] UNKNOWN = {0, UNDERFLOWED};
+
+    /**
+     * Describe how an instruction uses the stack.
+     *
+     * @param instr an instruction
+     * @return the number of values it needs on the stack, followed by the
+     * change it makes to the stack depth; an instruction this class does not
+     * know is treated as ending the analysis
+     */
+    private static int[] stackEffect(Machine.Instruction instr) {
+        if (instr instanceof Machine.PushConst || instr instanceof Machine.Load) {
+            return PUSHES;
+        } else if (instr instanceof Machine.Duplicate) {
+            return DUPLICATES;
+        } else if (instr instanceof Machine.Negate || instr instanceof Machine.SquareRoot) {
+            return UNARY;
+        } else if (instr instanceof Machine.Store || instr instanceof Machine.Print) {
+            return POPS;
+        } else if (instr instanceof Machine.Add || instr instanceof Machine.Subtract
+                || instr instanceof Machine.Multiply || instr instanceof Machine.Divide) {
+            return BINARY;
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,525 @@
+package dendron.machine;
+
+import dendron.DendronException;
+import dendron.Errors;
+import dendron.OutputSink;
+import dendron.SourcePosition;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A record of where the time goes when a {@link Machine} runs programs.
+ * <p>
+ * Once a Profiler is given to a Machine with
+ * {@link Machine#setProfiler(Profiler)}, every run on that Machine adds
+ * to it:
+ * <ul>
+ *     <li>how many times each kind of instruction ran, and for how long
+ *     in all;</li>
+ *     <li>the deepest the operand stack got;</li>
+ *     <li>how many times each variable was loaded and stored;</li>
+ *     <li>how long was spent at each instruction address, so that the
+ *     hottest ones can be traced back to the statements they came
+ *     from.</li>
+ * </ul>
+ * A Machine without a Profiler checks for one once per run, and runs
+ * its usual loop, so profiling costs nothing when it is off. A profiled
+ * run reads the clock around every instruction, which takes longer
+ * than most instructions do, so the times are for comparing parts of a
+ * program with one another, not with an unprofiled run.
+ * <p>
+ * Profiling a run of {@link Bytecode} times the instructions it was
+ * decoded from, run one at a time as for an {@link Executable}, not the
+ * switch loop that runs Bytecode when there is no Profiler. The figures
+ * show where a program spends its time, not how fast that loop is.
+ * <p>
+ * The address figures are for the Executable or Bytecode run most
+ * recently: running any other one, even with the same instructions,
+ * starts them again. Since Machine programs have no
+ * jumps, the statements are found where the operand stack becomes
+ * empty, which is where the code of one statement ends and the next
+ * begins. If the statements' source positions are given, the report
+ * shows them too.
+ *
+ * @author Pedro Breton
+ */
+public final class Profiler {
+
+    /**
+     * The index of the counters for instructions that have no opcode
+     */
+    private static final int OTHER = Bytecode.MNEMONICS.length;
+
+    /**
+     * How many of the hottest addresses are reported
+     */
+    private static final int HOT_ADDRESSES = 10;
+
+    private final List<SourcePosition> statements;
+
+    private final long[] opcodeCounts = new long[OTHER + 1];
+    private final long[] opcodeTimes = new long[OTHER + 1];
+    private final Map<String, Integer> variableIndex = new HashMap<>();
+    private final List<String> variableNames = new ArrayList<>();
+    private long[] loads = new long[8];
+    private long[] stores = new long[8];
+    private int maxStackDepth;
+    private long runs;
+    private long executed;
+
+    private Object program;
+    private Machine.Instruction[] code;
+    private int[] opcodes;
+    private int[] variables;
+    private int[] statementOf;
+    private int statementCount;
+    private long[] addressCounts;
+    private long[] addressTimes;
+    private long[] runTimes;
+
+    /**
+     * Create a Profiler that knows nothing about where the programs it
+     * sees came from. Statements are reported by number.
+     */
+    public Profiler() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * Create a Profiler for a program compiled from source, so that its
+     * statements can be reported by position.
+     *
+     * @param statements the source position of each statement, in order
+     */
+    public Profiler(List<SourcePosition> statements) {
+        this.statements = new ArrayList<>(statements);
+    }
+
+    /**
+     * Run a program on a Machine, timing each instruction. The Machine
+     * has already been reset for the program.
+     *
+     * @param machine the Machine running the program
+     * @param program the program
+     */
+    void run(Machine machine, Executable program) {
+        if (program != this.program) {
+            attach(program, program.code());
+        }
+        run(machine);
+    }
+
+    /**
+     * Run an encoded program on a Machine, timing each of the
+     * instructions it was encoded from. They are decoded only when the
+     * program is not the one profiled last. The Machine has already been
+     * reset for the program.
+     *
+     * @param machine the Machine running the program
+     * @param program the encoded program
+     */
+    void run(Machine machine, Bytecode program) {
+        if (program != this.program) {
+            attach(program, program.decode().toArray(new Machine.Instruction[0]));
+        }
+        run(machine);
+    }
+
+    private void run(Machine machine) {
+        Machine.Instruction[] code = this.code;
+        long[] times = this.runTimes;
+        int maxDepth = this.maxStackDepth;
+        int pc = 0;
+        try {
+            for (; pc < code.length; ++pc) {
+                long start = System.nanoTime();
+                try {
+                    code[pc].execute(machine);
+                } finally {
+                    times[pc] = System.nanoTime() - start;
+                }
+                maxDepth = Math.max(maxDepth, machine.getStackSize());
+            }
+        } finally {
+            this.maxStackDepth = maxDepth;
+            record(Math.min(pc + 1, code.length));
+        }
+    }
+
+    /**
+     * Get ready to profile a program that is not the one profiled last,
+     * starting the address figures again.
+     *
+     * @param program the Executable or Bytecode to be run
+     * @param code    its instructions, which are not changed
+     */
+    private void attach(Object program, Machine.Instruction[] code) {
+        int length = code.length;
+        this.program = program;
+        this.code = code;
+        this.opcodes = new int[length];
+        this.variables = new int[length];
+        this.statementOf = new int[length];
+        this.addressCounts = new long[length];
+        this.addressTimes = new long[length];
+        this.runTimes = new long[length];
+        int statement = 0;
+        int depth = 0;
+        for (int pc = 0; pc < length; ++pc) {
+            int opcode = Bytecode.opcodeOf(code[pc]);
+            this.statementOf[pc] = statement;
+            this.variables[pc] = -1;
+            if (opcode < 0) {
+                this.opcodes[pc] = OTHER;
+                continue;
+            }
+            this.opcodes[pc] = opcode;
+            if (opcode == Bytecode.LOAD) {
+                this.variables[pc] = variable(((Machine.Load) code[pc]).getName());
+            } else if (opcode == Bytecode.STORE) {
+                this.variables[pc] = variable(((Machine.Store) code[pc]).getName());
+            }
+            depth += Bytecode.PUSHES[opcode] - Bytecode.POPS[opcode];
+            if (depth <= 0) {
+                depth = 0;
+                ++statement;
+            }
+        }
+        this.statementCount = depth == 0 ? statement : statement + 1;
+    }
+
+    private int variable(String name) {
+        Integer index = this.variableIndex.get(name);
+        if (index == null) {
+            index = this.variableNames.size();
+            this.variableIndex.put(name, index);
+            this.variableNames.add(name);
+            if (index == this.loads.length) {
+                this.loads = Arrays.copyOf(this.loads, 2 * index);
+                this.stores = Arrays.copyOf(this.stores, 2 * index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Add the figures of a run to the totals.
+     *
+     * @param count how many instructions ran, counting one that failed
+     */
+    private void record(int count) {
+        ++this.runs;
+        this.executed += count;
+        for (int pc = 0; pc < count; ++pc) {
+            int opcode = this.opcodes[pc];
+            long time = this.runTimes[pc];
+            ++this.opcodeCounts[opcode];
+            this.opcodeTimes[opcode] += time;
+            ++this.addressCounts[pc];
+            this.addressTimes[pc] += time;
+            if (opcode == Bytecode.LOAD) {
+                ++this.loads[this.variables[pc]];
+            } else if (opcode == Bytecode.STORE) {
+                ++this.stores[this.variables[pc]];
+            }
+        }
+    }
+
+    /**
+     * @return the number of runs profiled
+     */
+    public long getRunCount() {
+        return this.runs;
+    }
+
+    /**
+     * @return the number of instructions run in all
+     */
+    public long getInstructionCount() {
+        return this.executed;
+    }
+
+    /**
+     * @return the most values there have been on the operand stack
+     */
+    public int getMaxStackDepth() {
+        return this.maxStackDepth;
+    }
+
+    /**
+     * @return how many times each kind of instruction has run, by
+     * assembly name, for the kinds that have
+     */
+    public Map<String, Long> getOpcodeCounts() {
+        return byOpcode(this.opcodeCounts);
+    }
+
+    /**
+     * @return the time spent running each kind of instruction, in
+     * nanoseconds, by assembly name, for the kinds that have run
+     */
+    public Map<String, Long> getOpcodeTimes() {
+        return byOpcode(this.opcodeTimes);
+    }
+
+    private Map<String, Long> byOpcode(long[] figures) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int opcode = 0; opcode <= OTHER; ++opcode) {
+            if (this.opcodeCounts[opcode] > 0) {
+                map.put(opcodeName(opcode), figures[opcode]);
+            }
+        }
+        return map;
+    }
+
+    private static String opcodeName(int opcode) {
+        return opcode == OTHER ? "other" : Bytecode.MNEMONICS[opcode];
+    }
+
+    /**
+     * @return how many times each variable has been loaded, by name
+     */
+    public Map<String, Long> getLoadCounts() {
+        return byVariable(this.loads);
+    }
+
+    /**
+     * @return how many times each variable has been stored, by name
+     */
+    public Map<String, Long> getStoreCounts() {
+        return byVariable(this.stores);
+    }
+
+    private Map<String, Long> byVariable(long[] counts) {
+        Map<String, Long> map = new TreeMap<>();
+        for (int i = 0; i < this.variableNames.size(); ++i) {
+            map.put(this.variableNames.get(i), counts[i]);
+        }
+        return map;
+    }
+
+    /**
+     * Find the addresses of the program profiled last where the most
+     * time was spent.
+     *
+     * @param limit the most addresses to give
+     * @return the addresses, hottest first
+     */
+    public int[] getHotAddresses(int limit) {
+        if (this.code == null) {
+            return new int[0];
+        }
+        int[] hot = new int[Math.min(limit, this.code.length)];
+        int size = 0;
+        for (int pc = 0; pc < this.code.length; ++pc) {
+            if (this.addressCounts[pc] == 0) {
+                continue;
+            }
+            int at = size < hot.length ? size++ : hot.length;
+            while (at > 0 && this.addressTimes[hot[at - 1]] < this.addressTimes[pc]) {
+                if (at < hot.length) {
+                    hot[at] = hot[at - 1];
+                }
+                --at;
+            }
+            if (at < hot.length) {
+                hot[at] = pc;
+            }
+        }
+        return Arrays.copyOf(hot, size);
+    }
+
+    /**
+     * Get the statement an address of the program profiled last belongs
+     * to.
+     *
+     * @param address the instruction address
+     * @return the statement number, counting from 1
+     */
+    public int statementOf(int address) {
+        return this.statementOf[address] + 1;
+    }
+
+    /**
+     * Describe a statement by number, and by position if it is known.
+     */
+    private String describeStatement(int address) {
+        int statement = this.statementOf[address];
+        if (statement < this.statements.size() && this.statementCount == this.statements.size()) {
+            return String.format("%d (%s)", statement + 1, this.statements.get(statement));
+        }
+        return String.valueOf(statement + 1);
+    }
+
+    /**
+     * Show the profile as text, in tables.
+     *
+     * @return the report text
+     */
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-14s %12d\n", "runs", this.runs));
+        text.append(String.format("%-14s %12d\n", "instructions", this.executed));
+        text.append(String.format("%-14s %12d\n", "max stack", this.maxStackDepth));
+
+        long total = 0;
+        for (long time : this.opcodeTimes) {
+            total += time;
+        }
+        text.append(String.format("\n%-10s %12s %12s %8s %7s\n", "opcode", "count", "time ms", "avg ns", "time"));
+        for (int opcode = 0; opcode <= OTHER; ++opcode) {
+            long count = this.opcodeCounts[opcode];
+            if (count > 0) {
+                text.append(String.format("%-10s %12d %12.3f %8.1f %6.1f%%\n", opcodeName(opcode), count,
+                        this.opcodeTimes[opcode] / 1e6, (double) this.opcodeTimes[opcode] / count,
+                        total == 0 ? 0.0 : 100.0 * this.opcodeTimes[opcode] / total));
+            }
+        }
+
+        if (!this.variableNames.isEmpty()) {
+            text.append(String.format("\n%-10s %12s %12s\n", "variable", "loads", "stores"));
+            Map<String, Long> loadCounts = getLoadCounts();
+            Map<String, Long> storeCounts = getStoreCounts();
+            for (String name : loadCounts.keySet()) {
+                text.append(String.format("%-10s %12d %12d\n", name, loadCounts.get(name), storeCounts.get(name)));
+            }
+        }
+
+        int[] hot = getHotAddresses(HOT_ADDRESSES);
+        if (hot.length > 0) {
+            text.append(String.format("\n%-10s %12s %12s  %-14s %s\n", "address", "count", "time ms",
+                    "instruction", "statement"));
+            for (int pc : hot) {
+                text.append(String.format("%-10d %12d %12.3f  %-14s %s\n", pc, this.addressCounts[pc],
+                        this.addressTimes[pc] / 1e6, this.code[pc], describeStatement(pc)));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Show the profile as a JSON object, for other programs to read.
+     * Times are in nanoseconds.
+     *
+     * @return the JSON text
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"runs\": ").append(this.runs).append(",\n");
+        json.append("  \"instructions\": ").append(this.executed).append(",\n");
+        json.append("  \"maxStackDepth\": ").append(this.maxStackDepth).append(",\n");
+
+        json.append("  \"opcodes\": [");
+        String separator = "\n";
+        for (int opcode = 0; opcode <= OTHER; ++opcode) {
+            if (this.opcodeCounts[opcode] > 0) {
+                json.append(separator).append("    {\"opcode\": ").append(quote(opcodeName(opcode)))
+                        .append(", \"count\": ").append(this.opcodeCounts[opcode])
+                        .append(", \"nanos\": ").append(this.opcodeTimes[opcode]).append('}');
+                separator = ",\n";
+            }
+        }
+        json.append(separator.equals("\n") ? "],\n" : "\n  ],\n");
+
+        json.append("  \"variables\": [");
+        separator = "\n";
+        Map<String, Long> loadCounts = getLoadCounts();
+        Map<String, Long> storeCounts = getStoreCounts();
+        for (String name : loadCounts.keySet()) {
+            json.append(separator).append("    {\"name\": ").append(quote(name))
+                    .append(", \"loads\": ").append(loadCounts.get(name))
+                    .append(", \"stores\": ").append(storeCounts.get(name)).append('}');
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "],\n" : "\n  ],\n");
+
+        json.append("  \"hotAddresses\": [");
+        separator = "\n";
+        for (int pc : getHotAddresses(HOT_ADDRESSES)) {
+            int statement = this.statementOf[pc];
+            json.append(separator).append("    {\"address\": ").append(pc)
+                    .append(", \"instruction\": ").append(quote(this.code[pc].toString()))
+                    .append(", \"count\": ").append(this.addressCounts[pc])
+                    .append(", \"nanos\": ").append(this.addressTimes[pc])
+                    .append(", \"statement\": ").append(statement + 1);
+            if (statement < this.statements.size() && this.statementCount == this.statements.size()) {
+                json.append(", \"position\": ").append(quote(this.statements.get(statement).toString()));
+            }
+            json.append('}');
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * Make a JSON string literal.
+     */
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Profile an assembly code file, with the program's own output
+     * thrown away, and show the report.
+     *
+     * @param args the assembly code file, then optionally the number of
+     *             runs (default 1) and a file to write the JSON profile to
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: java Profiler assembly-code-file [runs [json-file]]");
+            System.exit(1);
+        }
+        List<Machine.Instruction> code = InstructionReader.assemble(args[0]);
+        if (code == null) {
+            System.exit(1);
+        }
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        Executable program = Executable.of(code);
+        Profiler profiler = new Profiler();
+        Machine machine = new Machine(OutputSink.DISCARD);
+        machine.setProfiler(profiler);
+        try {
+            for (int run = 0; run < runs; ++run) {
+                machine.run(program);
+            }
+        } catch (DendronException de) {
+            System.out.print(profiler.report());
+            Errors.abort(de);
+        }
+        System.out.print(profiler.report());
+        if (args.length > 2) {
+            try {
+                Files.write(Paths.get(args[2]), profiler.toJson().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ioe) {
+                System.err.println("Cannot write " + args[2] + ": " + ioe.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package dendron.machine;
+
+import dendron.DendronRuntimeException;
+import dendron.Errors;
+import dendron.OutputSink;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * A second abstraction of a computing machine, for comparison with the
+ * stack-based {@link Machine}. Instead of a value stack it has a file of
+ * numbered registers, and every instruction names the registers it reads
+ * and writes, so a binary operation is one instruction rather than two
+ * pushes, the operation, and a store.
+ * <p>
+ * Register programs are produced by a code generator that knows, as the
+ * Machine's resolver does, which variable lives where. The generator also
+ * works out ahead of time which variable reads must fail, since there are
+ * no jumps, so the registers carry no "initialized" flags.
+ * <p>
+ * Like the Machine, each instance owns its registers, and instructions
+ * and {@link RegisterProgram}s can be shared between instances.
+ *
+ * @author Pedro Breton
+ */
+public class RegisterMachine {
+
+    public static interface Instruction {
+        /**
+         * Run this instruction on the RegisterMachine, using its registers.
+         *
+         * @param machine the RegisterMachine running the program
+         */
+        void execute(RegisterMachine machine);
+
+        /**
+         * Show the instruction using text so it can be understood
+         * by a person.
+         *
+         * @return a short string describing what this instruction will do
+         */
+        @Override
+        String toString();
+    }
+
+    private final OutputSink output;
+    private int[] registers;
+    private RegisterProgram program;
+
+    /**
+     * Create a RegisterMachine with no registers in use, that shows what
+     * programs print on standard output, as the {@link Machine} does.
+     */
+    public RegisterMachine() {
+        this(OutputSink.console(Machine.PRINT_PREFIX));
+    }
+
+    /**
+     * Create a RegisterMachine with no registers in use.
+     *
+     * @param output where the values programs print go
+     */
+    public RegisterMachine(OutputSink output) {
+        this.output = output;
+        this.registers = new int[0];
+    }
+
+    /**
+     * Generate a listing of a program on standard output by
+     * calling the toString() method on each instruction
+     * contained therein, in order.
+     *
+     * @param program the register program
+     */
+    public static void displayInstructions(RegisterProgram program) {
+        System.out.println("\nCompiled register code:");
+        for (Instruction instr : program.instructions()) {
+            System.out.println(instr);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Run a register program, then report on the contents of the
+     * symbol table, in the same form as {@link Machine#execute(List)}.
+     *
+     * @param program the register program
+     */
+    public static void execute(RegisterProgram program) {
+        RegisterMachine machine = new RegisterMachine();
+        System.out.println("Executing compiled register code...");
+        machine.run(program);
+        System.out.println("RegisterMachine: execution ended after " +
+                program.length() + " instructions.");
+        System.out.println();
+        Errors.dump(machine.getSymbolTable());
+    }
+
+    /**
+     * Run a program on this RegisterMachine, starting with all
+     * registers clear. Nothing is printed apart from the program's
+     * own PRINT output, and the output is flushed at the end.
+     *
+     * @param program the register program
+     */
+    public void run(RegisterProgram program) {
+        this.program = program;
+        if (this.registers.length != program.registerCount()) {
+            this.registers = new int[program.registerCount()];
+        } else {
+            Arrays.fill(this.registers, 0);
+        }
+        try {
+            for (Instruction instr : program.code()) {
+                instr.execute(this);
+            }
+        } finally {
+            this.output.flush();
+        }
+    }
+
+    /**
+     * @return the variables set by the last run, by name
+     */
+    public Map<String, Integer> getSymbolTable() {
+        return this.program.getSymbolTable(this.registers);
+    }
+
+    /**
+     * Format a register operand.
+     */
+    private static String reg(int register) {
+        return "r" + register;
+    }
+
+    /**
+     * The LOADI instruction: put a constant in a register
+     */
+    public static class LoadConst implements Instruction {
+        private final int target;
+        private final int constant;
+
+        /**
+         * @param target   the destination register
+         * @param constant the value to put there
+         */
+        public LoadConst(int target, int constant) {
+            this.target = target;
+            this.constant = constant;
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            machine.registers[this.target] = this.constant;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("LOADI %s, %d", reg(this.target), this.constant);
+        }
+    }
+
+    /**
+     * The MOV instruction: copy one register to another
+     */
+    public static class Move implements Instruction {
+        private final int target;
+        private final int source;
+
+        /**
+         * @param target the destination register
+         * @param source the register to copy
+         */
+        public Move(int target, int source) {
+            this.target = target;
+            this.source = source;
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            machine.registers[this.target] = machine.registers[this.source];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("MOV   %s, %s", reg(this.target), reg(this.source));
+        }
+    }
+
+    /**
+     * The PRINT instruction
+     */
+    public static class Print implements Instruction {
+        private final int source;
+
+        /**
+         * @param source the register holding the value to print
+         */
+        public Print(int source) {
+            this.source = source;
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            machine.output.accept(machine.registers[this.source]);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("PRINT %s", reg(this.source));
+        }
+    }
+
+    /**
+     * The FAIL instruction, placed by the code generator where the
+     * program is certain to go wrong, such as reading a variable that
+     * has not been given a value.
+     */
+    public static class Fail implements Instruction {
+        private final Errors.Type type;
+        private final String info;
+
+        /**
+         * @param type the kind of error to raise
+         * @param info the additional information to go with it
+         */
+        public Fail(Errors.Type type, String info) {
+            this.type = type;
+            this.info = info;
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            throw new DendronRuntimeException(this.type, this.info);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("FAIL  %s", this.info);
+        }
+    }
+
+    //
+    // BINARY OPERATIONS
+    //
+
+    /**
+     * Common parts of the instructions that combine two registers into a third
+     */
+    private abstract static class Binary implements Instruction {
+        protected final int target;
+        protected final int left;
+        protected final int right;
+        private final String mnemonic;
+
+        Binary(String mnemonic, int target, int left, int right) {
+            this.mnemonic = mnemonic;
+            this.target = target;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-5s %s, %s, %s", this.mnemonic, reg(this.target), reg(this.left), reg(this.right));
+        }
+    }
+
+    /**
+     * The ADD instruction
+     */
+    public static class Add extends Binary {
+        public Add(int target, int left, int right) {
+            super("ADD", target, left, right);
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            int[] r = machine.registers;
+            r[this.target] = r[this.left] + r[this.right];
+        }
+    }
+
+    /**
+     * The SUB instruction
+     */
+    public static class Subtract extends Binary {
+        public Subtract(int target, int left, int right) {
+            super("SUB", target, left, right);
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            int[] r = machine.registers;
+            r[this.target] = r[this.left] - r[this.right];
+        }
+    }
+
+    /**
+     * The MUL instruction
+     */
+    public static class Multiply extends Binary {
+        public Multiply(int target, int left, int right) {
+            super("MUL", target, left, right);
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            int[] r = machine.registers;
+            r[this.target] = r[this.left] * r[this.right];
+        }
+    }
+
+    /**
+     * The DIV instruction
+     */
+    public static class Divide extends Binary {
+        public Divide(int target, int left, int right) {
+            super("DIV", target, left, right);
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            int[] r = machine.registers;
+            if (r[this.right] != 0) {
+                r[this.target] = r[this.left] / r[this.right];
+            } else {
+                throw new DendronRuntimeException(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
+            }
+        }
+    }
+
+    //
+    // UNARY OPERATIONS
+    //
+
+    /**
+     * The NEG instruction
+     */
+    public static class Negate implements Instruction {
+        private final int target;
+        private final int source;
+
+        public Negate(int target, int source) {
+            this.target = target;
+            this.source = source;
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            machine.registers[this.target] = -machine.registers[this.source];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("NEG   %s, %s", reg(this.target), reg(this.source));
+        }
+    }
+
+    /**
+     * The SQRT instruction
+     */
+    public static class SquareRoot implements Instruction {
+        private final int target;
+        private final int source;
+
+        public SquareRoot(int target, int source) {
+            this.target = target;
+            this.source = source;
+        }
+
+        @Override
+        public void execute(RegisterMachine machine) {
+            int op1 = machine.registers[this.source];
+            if (op1 >= 0) {
+                machine.registers[this.target] = (int) sqrt(op1);
+            } else {
+                throw new DendronRuntimeException(Errors.Type.ILLEGAL_VALUE, "Negative square root");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("SQRT  %s, %s", reg(this.target), reg(this.source));
+        }
+    }
+}
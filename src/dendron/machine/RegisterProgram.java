@@ -0,0 +1,90 @@
+package dendron.machine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A program for the {@link RegisterMachine}, ready to run. It keeps
+ * the instructions together with the size of the register file they
+ * use and the names of the variables the low registers hold. Since
+ * programs have no jumps, the code generator also knows which variables
+ * hold a value once the program has run to its end, and records that
+ * here rather than having the machine track it.
+ * <p>
+ * A RegisterProgram never changes after it is built, so one can be
+ * shared by any number of RegisterMachines running at the same time.
+ *
+ * @author Pedro Breton
+ */
+public final class RegisterProgram {
+
+    private final RegisterMachine.Instruction[] code;
+    private final int registerCount;
+    private final String[] variables;
+    private final boolean[] assigned;
+
+    /**
+     * Package a register program.
+     *
+     * @param code          the instructions, in order; the list is copied
+     * @param registerCount how many registers the instructions use
+     * @param variables     the name of the variable held in each of the
+     *                      registers 0, 1, 2, ...
+     * @param assigned      for each of those variables, whether it holds a
+     *                      value when the program ends normally
+     */
+    public RegisterProgram(List<RegisterMachine.Instruction> code, int registerCount,
+                           List<String> variables, boolean[] assigned) {
+        if (variables.size() > registerCount || assigned.length != variables.size()) {
+            throw new IllegalArgumentException("register map does not match register count");
+        }
+        this.code = code.toArray(new RegisterMachine.Instruction[0]);
+        this.registerCount = registerCount;
+        this.variables = variables.toArray(new String[0]);
+        this.assigned = assigned.clone();
+    }
+
+    /**
+     * @return the instructions, in order, as a read-only list
+     */
+    public List<RegisterMachine.Instruction> instructions() {
+        return Collections.unmodifiableList(Arrays.asList(this.code));
+    }
+
+    /**
+     * @return the number of instructions in the program
+     */
+    public int length() {
+        return this.code.length;
+    }
+
+    /**
+     * @return the number of registers a RegisterMachine needs for this program
+     */
+    public int registerCount() {
+        return this.registerCount;
+    }
+
+    /**
+     * Package access to the instructions for the RegisterMachine's run loop.
+     */
+    RegisterMachine.Instruction[] code() {
+        return this.code;
+    }
+
+    /**
+     * Build the symbol table from the registers of a finished run.
+     */
+    Map<String, Integer> getSymbolTable(int[] registers) {
+        Map<String, Integer> symTab = new HashMap<>();
+        for (int r = 0; r < this.variables.length; ++r) {
+            if (this.assigned[r]) {
+                symTab.put(this.variables[r], registers[r]);
+            }
+        }
+        return symTab;
+    }
+}
@@ -0,0 +1,107 @@
+package dendron.machine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of symbol resolution: a dense numbering of the variables
+ * used by a program. Each distinct name gets the next free slot, so the
+ * Machine can keep variable values in an int array indexed by slot
+ * instead of a map keyed by name. The table also remembers the name for
+ * every slot so that results can still be shown by name.
+ *
+ * @author Pedro Breton
+ */
+public class SlotTable {
+
+    private final Map<String, Integer> slots;
+    private final List<String> names;
+
+    /**
+     * Create an empty table.
+     */
+    public SlotTable() {
+        this.slots = new HashMap<>();
+        this.names = new ArrayList<>();
+    }
+
+    /**
+     * Find the slot of a variable, giving it a new one if this is the
+     * first time the name has been seen.
+     *
+     * @param name the variable name
+     * @return the variable's slot number
+     */
+    public int slotOf(String name) {
+        Integer slot = this.slots.get(name);
+        if (slot == null) {
+            slot = this.names.size();
+            this.slots.put(name, slot);
+            this.names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+     * Record a slot that was chosen by an earlier resolution pass.
+     *
+     * @param name the variable name
+     * @param slot the slot already assigned to it
+     * @throws IllegalStateException if the name or the slot is already
+     *                               bound differently
+     */
+    public void bind(String name, int slot) {
+        Integer known = this.slots.get(name);
+        if (known != null) {
+            if (known != slot) {
+                throw new IllegalStateException(String.format(
+                        "%s is bound to both slot %d and slot %d", name, known, slot));
+            }
+            return;
+        }
+        while (this.names.size() <= slot) {
+            this.names.add(null);
+        }
+        if (this.names.get(slot) != null) {
+            throw new IllegalStateException(String.format(
+                    "slot %d is bound to both %s and %s", slot, this.names.get(slot), name));
+        }
+        this.names.set(slot, name);
+        this.slots.put(name, slot);
+    }
+
+    /**
+     * Get the name of the variable kept in a slot.
+     *
+     * @param slot the slot number
+     * @return the variable name, or null if the slot is unused
+     */
+    public String nameOf(int slot) {
+        return this.names.get(slot);
+    }
+
+    /**
+     * @return the number of slots a frame for this table needs
+     */
+    public int size() {
+        return this.names.size();
+    }
+
+    /**
+     * Build a name-keyed view of a frame, for display.
+     *
+     * @param frame       the variable values, indexed by slot
+     * @param initialized which slots have been given a value
+     * @return a map from the name of every initialized variable to its value
+     */
+    public Map<String, Integer> toMap(int[] frame, BitSet initialized) {
+        Map<String, Integer> table = new HashMap<>();
+        for (int slot = initialized.nextSetBit(0); slot >= 0; slot = initialized.nextSetBit(slot + 1)) {
+            table.put(this.names.get(slot), frame[slot]);
+        }
+        return table;
+    }
+}
@@ -1,5 +1,7 @@
 package dendron.tree;
 
+import dendron.OutputSink;
+
 import java.util.Map;
 
 /**
@@ -16,6 +18,22 @@ public interface ActionNode extends DendronNode {
      * things like changing variable values.
      *
      * @param symTab the table where variable values are stored
+     * @param output where printed values go; it is not flushed here
+     */
+    void execute(Map<String, Integer> symTab, OutputSink output);
+
+    /**
+     * Perform the action represented by this node, showing any printed
+     * values on standard output.
+     *
+     * @param symTab the table where variable values are stored
      */
-    void execute(Map<String, Integer> symTab);
+    default void execute(Map<String, Integer> symTab) {
+        OutputSink output = OutputSink.console(Print.PREFIX);
+        try {
+            execute(symTab, output);
+        } finally {
+            output.flush();
+        }
+    }
 }
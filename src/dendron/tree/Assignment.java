@@ -1,10 +1,10 @@
 package dendron.tree;
 
+import dendron.OutputSink;
 import dendron.machine.Machine;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * An ActionNode that represents the assignment of the value of an expression to a variable.
@@ -25,12 +25,27 @@ public class Assignment implements ActionNode {
         this.rhs = rhs;
     }
 
+    /**
+     * @return the name of the variable that is getting a new value
+     */
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the expression on the right-hand side
+     */
+    ExpressionNode getExpression() {
+        return this.rhs;
+    }
+
     /**
      * Evaluate the RHS expression and assign the result value to the variable.
      * @param symTab the table where variable values are stored
+     * @param output not used, since an assignment prints nothing
      */
     @Override
-    public void execute(Map<String, Integer> symTab) {
+    public void execute(Map<String, Integer> symTab, OutputSink output) {
         symTab.put(this.name, this.rhs.evaluate(symTab));
 
     }
@@ -48,14 +63,11 @@ public class Assignment implements ActionNode {
     /**
      * This method returns a STORE instruction for the variable in question preceded by the code emitted by the RHS node
      * that eventually pushes the value of the expression onto the stack.
-     * @return This method returns a STORE instruction for the variable in question preceded by the code emitted by the
-     * RHS node that eventually pushes the value of the expression onto the stack.
+     * @param code where the RHS node's instructions go, followed by the STORE instruction
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> list = new ArrayList<>();
-        list.addAll(rhs.emit());
-        list.add(new Machine.Store(this.name));
-        return list;
+    public void emit(Consumer<Machine.Instruction> code) {
+        rhs.emit(code);
+        code.accept(new Machine.Store(this.name));
     }
 }
@@ -1,9 +1,12 @@
 package dendron.tree;
 
+import dendron.DendronRuntimeException;
+import dendron.DendronSyntaxException;
 import dendron.Errors;
 import dendron.machine.Machine;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * A calculation represented by a binary operator and its two operands.
@@ -19,6 +22,7 @@ public class BinaryOperation implements ExpressionNode {
     private String operator;
     private ExpressionNode leftChild;
     private ExpressionNode rightChild;
+    private final int height;
 
     /**
      * Create a new BinaryOperation node.
@@ -31,12 +35,42 @@ public class BinaryOperation implements ExpressionNode {
             this.operator = operator;
             this.leftChild = leftChild;
             this.rightChild = rightChild;
+            this.height = 1 + Math.max(Expressions.heightOf(leftChild), Expressions.heightOf(rightChild));
         } else {
-            Errors.report(Errors.Type.ILLEGAL_VALUE, String.format("%s is not a valid operator", operator));
+            throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE,
+                    String.format("%s is not a valid operator", operator), null);
         }
 
     }
 
+    /**
+     * @return the string rep. of the operation
+     */
+    String getOperator() {
+        return this.operator;
+    }
+
+    /**
+     * @return the left operand
+     */
+    ExpressionNode getLeftChild() {
+        return this.leftChild;
+    }
+
+    /**
+     * @return the right operand
+     */
+    ExpressionNode getRightChild() {
+        return this.rightChild;
+    }
+
+    /**
+     * @return the height of the tree rooted here
+     */
+    int getHeight() {
+        return this.height;
+    }
+
     /**
      * Compute the result of evaluating both operands and applying the operator to them.
      * @param symTab symbol table, if needed, to fetch variable values
@@ -44,9 +78,21 @@ public class BinaryOperation implements ExpressionNode {
      */
     @Override
     public int evaluate(Map<String, Integer> symTab) {
-        int a = leftChild.evaluate(symTab);
-        int b = rightChild.evaluate(symTab);
-        switch (this.operator) {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            return Expressions.evaluate(this, symTab);
+        }
+        return apply(this.operator, leftChild.evaluate(symTab), rightChild.evaluate(symTab));
+    }
+
+    /**
+     * Apply an operator to two values.
+     * @param operator the string rep. of the operation
+     * @param a the left operand's value
+     * @param b the right operand's value
+     * @return the result of the computation
+     */
+    static int apply(String operator, int a, int b) {
+        switch (operator) {
             case ADD:
                 return a + b;
             case SUB:
@@ -57,7 +103,7 @@ public class BinaryOperation implements ExpressionNode {
                 if (b != 0) {
                     return a / b;
                 } else {
-                    Errors.report(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
+                    throw new DendronRuntimeException(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
                 }
             default:
                 return 0;
@@ -70,6 +116,10 @@ public class BinaryOperation implements ExpressionNode {
      */
     @Override
     public void infixDisplay() {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            Expressions.infixDisplay(this);
+            return;
+        }
         System.out.print("( ");
         this.leftChild.infixDisplay();
         System.out.print(" " + this.operator + " ");
@@ -81,28 +131,36 @@ public class BinaryOperation implements ExpressionNode {
      * Emit the Machine instructions necessary to perform the computation of this BinaryOperation. T
      * he operator itself is realized by an instruction that pops two values off the stack, applies the operator,
      * and pushes the answer.
-     * @return a list containing instructions for the left operand, instructions for the right operand,
+     * @param code where the instructions go: those for the left operand, those for the right operand,
      * and the instruction to perform the operation
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> list = new ArrayList<>();
-        list.addAll(this.leftChild.emit());
-        list.addAll(this.rightChild.emit());
-        switch (this.operator) {
+    public void emit(Consumer<Machine.Instruction> code) {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            Expressions.emit(this, code);
+            return;
+        }
+        this.leftChild.emit(code);
+        this.rightChild.emit(code);
+        code.accept(instruction(this.operator));
+    }
+
+    /**
+     * Get the Machine instruction that performs an operation.
+     * @param operator the string rep. of the operation
+     * @return an instruction that pops two values off the stack, applies the operator,
+     * and pushes the answer
+     */
+    static Machine.Instruction instruction(String operator) {
+        switch (operator) {
             case ADD:
-                list.add(new Machine.Add());
-                break;
+                return new Machine.Add();
             case SUB:
-                list.add(new Machine.Subtract());
-                break;
+                return new Machine.Subtract();
             case MUL:
-                list.add(new Machine.Multiply());
-                break;
-            case DIV:
-                list.add(new Machine.Divide());
-                break;
+                return new Machine.Multiply();
+            default:
+                return new Machine.Divide();
         }
-        return list;
     }
 }
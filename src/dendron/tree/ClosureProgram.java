@@ -0,0 +1,295 @@
+package dendron.tree;
+
+import dendron.DendronException;
+import dendron.DendronRuntimeException;
+import dendron.Errors;
+import dendron.OutputSink;
+import dendron.SourcePosition;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A program tree compiled, in one pass, into a tree of small evaluator
+ * objects that the JVM can run directly. Everything the tree interpreter
+ * works out each time a node is evaluated is settled here once:
+ * <ul>
+ *     <li>each operator is resolved to its own evaluator, so there is no
+ *     switch on the operator string;</li>
+ *     <li>each variable is given a slot in an int[] frame, so there is no
+ *     map lookup;</li>
+ *     <li>common operand shapes, such as two variables or a variable and
+ *     a constant, get evaluators of their own that read the frame without
+ *     calling down to a child;</li>
+ *     <li>since a program has no jumps, whether a variable has a value yet
+ *     is known at each read, so only a read that must fail checks.</li>
+ * </ul>
+ * Each evaluator is a separate lambda, so every call site in it sees only
+ * one implementation of its children in the common cases.
+ * <p>
+ * Running the program gives the same output and errors as
+ * {@link Program#execute(Map)} on an empty symbol table. A ClosureProgram
+ * never changes after it is built and may be run any number of times.
+ *
+ * @author Pedro Breton
+ */
+public final class ClosureProgram {
+
+    /**
+     * A compiled expression
+     */
+    @FunctionalInterface
+    private interface Evaluator {
+        int evaluate(int[] frame);
+    }
+
+    /**
+     * A compiled statement
+     */
+    @FunctionalInterface
+    private interface Statement {
+        void execute(int[] frame, OutputSink output);
+    }
+
+    private final Statement[] statements;
+    private final SourcePosition[] positions;
+    private final String[] names;
+    private final boolean[] assigned;
+
+    private ClosureProgram(Statement[] statements, SourcePosition[] positions,
+                           String[] names, boolean[] assigned) {
+        this.statements = statements;
+        this.positions = positions;
+        this.names = names;
+        this.assigned = assigned;
+    }
+
+    /**
+     * Compile a program tree.
+     *
+     * @param program the program to compile
+     * @return the compiled program
+     */
+    static ClosureProgram compile(Program program) {
+        return new Compiler().compile(program);
+    }
+
+    /**
+     * Run the program from the start, with no variables set, showing
+     * what it prints on standard output.
+     *
+     * @return the symbol table at the end of the run
+     * @throws DendronException if a statement fails; it carries the
+     *                          statement's source position
+     */
+    public Map<String, Integer> run() {
+        OutputSink output = OutputSink.console(Print.PREFIX);
+        try {
+            return run(output);
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Run the program from the start, with no variables set.
+     *
+     * @param output where printed values go; it is not flushed here
+     * @return the symbol table at the end of the run
+     * @throws DendronException if a statement fails; it carries the
+     *                          statement's source position
+     */
+    public Map<String, Integer> run(OutputSink output) {
+        int[] frame = new int[this.names.length];
+        for (int i = 0; i < this.statements.length; ++i) {
+            try {
+                this.statements[i].execute(frame, output);
+            } catch (DendronException e) {
+                throw e.locate(this.positions[i]);
+            }
+        }
+        Map<String, Integer> symTab = new HashMap<>();
+        for (int slot = 0; slot < this.names.length; ++slot) {
+            if (this.assigned[slot]) {
+                symTab.put(this.names[slot], frame[slot]);
+            }
+        }
+        return symTab;
+    }
+
+    /**
+     * @return the number of statements in the program
+     */
+    public int length() {
+        return this.statements.length;
+    }
+
+    /**
+     * The single pass that builds the evaluators. It keeps the variable
+     * slots and which of them certainly hold a value at the current point.
+     */
+    private static final class Compiler {
+        private final Map<String, Integer> slots = new LinkedHashMap<>();
+        private boolean[] assigned = new boolean[8];
+
+        ClosureProgram compile(Program program) {
+            List<ActionNode> actions = program.getActions();
+            List<SourcePosition> where = program.getPositions();
+            Statement[] statements = new Statement[actions.size()];
+            int i = 0;
+            for (ActionNode action : actions) {
+                statements[i++] = statement(action);
+            }
+            return new ClosureProgram(statements,
+                    where.toArray(new SourcePosition[0]),
+                    this.slots.keySet().toArray(new String[0]),
+                    Arrays.copyOf(this.assigned, this.slots.size()));
+        }
+
+        private int slotOf(String name) {
+            Integer slot = this.slots.get(name);
+            if (slot == null) {
+                slot = this.slots.size();
+                this.slots.put(name, slot);
+                if (slot == this.assigned.length) {
+                    this.assigned = Arrays.copyOf(this.assigned, 2 * slot);
+                }
+            }
+            return slot;
+        }
+
+        private Statement statement(ActionNode action) {
+            if (action instanceof Assignment) {
+                Assignment assignment = (Assignment) action;
+                Evaluator value = expression(assignment.getExpression());
+                int slot = slotOf(assignment.getName());
+                this.assigned[slot] = true;
+                return (frame, output) -> frame[slot] = value.evaluate(frame);
+            } else if (action instanceof Print) {
+                Evaluator value = expression(((Print) action).getExpression());
+                return (frame, output) -> output.accept(value.evaluate(frame));
+            } else {
+                throw new IllegalArgumentException("cannot compile " + action.getClass().getSimpleName());
+            }
+        }
+
+        private Evaluator expression(ExpressionNode node) {
+            if (node instanceof Constant) {
+                int value = ((Constant) node).getValue();
+                return frame -> value;
+            } else if (node instanceof Variable) {
+                String name = ((Variable) node).getName();
+                int slot = slotOf(name);
+                if (!this.assigned[slot]) {
+                    return frame -> {
+                        throw new DendronRuntimeException(Errors.Type.UNINITIALIZED, name + " is not initialized");
+                    };
+                }
+                return frame -> frame[slot];
+            } else if (node instanceof SharedExpression) {
+                Evaluator value = expression(((SharedExpression) node).getExpression());
+                int slot = slotOf(((SharedExpression) node).getName());
+                this.assigned[slot] = true;
+                return frame -> frame[slot] = value.evaluate(frame);
+            } else if (node instanceof BinaryOperation) {
+                return binary((BinaryOperation) node);
+            } else {
+                return unary((UnaryOperation) node);
+            }
+        }
+
+        /**
+         * @return the frame slot a compiled operand reads directly, or -1
+         * if it is not a plain read of an initialized variable
+         */
+        private int slotRead(ExpressionNode node) {
+            if (node instanceof Variable) {
+                Integer slot = this.slots.get(((Variable) node).getName());
+                if (slot != null && this.assigned[slot]) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private Evaluator binary(BinaryOperation node) {
+            ExpressionNode leftNode = node.getLeftChild();
+            ExpressionNode rightNode = node.getRightChild();
+            Evaluator left = expression(leftNode);
+            int a = slotRead(leftNode);
+            Evaluator right = expression(rightNode);
+            int b = slotRead(rightNode);
+            boolean constant = rightNode instanceof Constant;
+            int c = constant ? ((Constant) rightNode).getValue() : 0;
+
+            switch (node.getOperator()) {
+                case BinaryOperation.ADD:
+                    if (a >= 0 && b >= 0) {
+                        return frame -> frame[a] + frame[b];
+                    } else if (a >= 0 && constant) {
+                        return frame -> frame[a] + c;
+                    } else if (constant) {
+                        return frame -> left.evaluate(frame) + c;
+                    }
+                    return frame -> left.evaluate(frame) + right.evaluate(frame);
+                case BinaryOperation.SUB:
+                    if (a >= 0 && b >= 0) {
+                        return frame -> frame[a] - frame[b];
+                    } else if (a >= 0 && constant) {
+                        return frame -> frame[a] - c;
+                    } else if (constant) {
+                        return frame -> left.evaluate(frame) - c;
+                    }
+                    return frame -> left.evaluate(frame) - right.evaluate(frame);
+                case BinaryOperation.MUL:
+                    if (a >= 0 && b >= 0) {
+                        return frame -> frame[a] * frame[b];
+                    } else if (a >= 0 && constant) {
+                        return frame -> frame[a] * c;
+                    } else if (constant) {
+                        return frame -> left.evaluate(frame) * c;
+                    }
+                    return frame -> left.evaluate(frame) * right.evaluate(frame);
+                default:
+                    if (constant && c != 0) {
+                        // A non-zero constant divisor can never fail.
+                        if (a >= 0) {
+                            return frame -> frame[a] / c;
+                        }
+                        return frame -> left.evaluate(frame) / c;
+                    }
+                    return frame -> {
+                        int dividend = left.evaluate(frame);
+                        int divisor = right.evaluate(frame);
+                        if (divisor != 0) {
+                            return dividend / divisor;
+                        } else {
+                            throw new DendronRuntimeException(Errors.Type.DIVIDE_BY_ZERO, "Integer divide by zero");
+                        }
+                    };
+            }
+        }
+
+        private Evaluator unary(UnaryOperation node) {
+            Evaluator operand = expression(node.getExpression());
+            int a = slotRead(node.getExpression());
+            if (node.getOperator().equals(UnaryOperation.NEG)) {
+                if (a >= 0) {
+                    return frame -> -frame[a];
+                }
+                return frame -> -operand.evaluate(frame);
+            }
+            return frame -> {
+                int value = operand.evaluate(frame);
+                if (value >= 0) {
+                    return (int) Math.sqrt(value);
+                } else {
+                    throw new DendronRuntimeException(Errors.Type.ILLEGAL_VALUE, "Negative root");
+                }
+            };
+        }
+    }
+}
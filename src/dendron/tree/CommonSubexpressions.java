@@ -0,0 +1,207 @@
+package dendron.tree;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An optimization pass that finds operations computing the same value
+ * more than once in a program and computes each of them only once.
+ * <p>
+ * The pass uses value numbering. Each variable gets a fresh value number
+ * every time it is assigned, and each operation gets the number of its
+ * operator applied to its operands' numbers. Two operations with the same
+ * number are structurally identical and read the same variable values,
+ * so the later one can reuse the earlier one's result. Because Dendron
+ * programs have no branches, the first occurrence of a value always runs
+ * before any of its reuses.
+ * <p>
+ * The first occurrence becomes a {@link SharedExpression} that saves its
+ * value in a compiler temporary, and each later occurrence becomes a
+ * Variable that reads the temporary. Nothing is moved, so every
+ * expression is still evaluated in its original order and any error is
+ * reported at the same point as before.
+ *
+ * @author Pedro Breton
+ */
+public class CommonSubexpressions {
+
+    private final Map<String, Integer> numbers;
+    private final Map<String, Integer> versions;
+    private final Map<ExpressionNode, Integer> valueOf;
+    private final Map<Integer, ExpressionNode> firstOf;
+    private final Set<Integer> shared;
+    private final Map<Integer, String> temporaries;
+    private int eliminated;
+    private int temporaryCount;
+
+    /**
+     * Create a pass that has not yet eliminated anything.
+     */
+    public CommonSubexpressions() {
+        this.numbers = new HashMap<>();
+        this.versions = new HashMap<>();
+        this.valueOf = new IdentityHashMap<>();
+        this.firstOf = new HashMap<>();
+        this.shared = new HashSet<>();
+        this.temporaries = new HashMap<>();
+        this.eliminated = 0;
+        this.temporaryCount = 0;
+    }
+
+    /**
+     * Eliminate common subexpressions from every statement of a program, in place.
+     *
+     * @param program the program to optimize
+     */
+    public void eliminate(Program program) {
+        List<ActionNode> actions = program.getActions();
+
+        // Number every expression node, in evaluation order.
+        for (ActionNode action : actions) {
+            ExpressionNode expr = Nodes.expressionOf(action);
+            if (expr != null) {
+                number(expr);
+            }
+            if (action instanceof Assignment) {
+                String name = ((Assignment) action).getName();
+                this.versions.merge(name, 1, Integer::sum);
+            }
+        }
+
+        // Find the values that are computed more than once.
+        for (ActionNode action : actions) {
+            ExpressionNode expr = Nodes.expressionOf(action);
+            if (expr != null) {
+                findReuses(expr);
+            }
+        }
+
+        if (!this.shared.isEmpty()) {
+            program.rewrite(action -> {
+                ExpressionNode expr = Nodes.expressionOf(action);
+                return expr == null ? action : Nodes.withExpression(action, rebuild(expr));
+            });
+        }
+        this.numbers.clear();
+        this.versions.clear();
+        this.valueOf.clear();
+        this.firstOf.clear();
+        this.shared.clear();
+        this.temporaries.clear();
+    }
+
+    /**
+     * Give a value number to an expression and everything below it.
+     *
+     * @param node the root of the expression
+     * @return its value number
+     */
+    private int number(ExpressionNode node) {
+        String key;
+        boolean operation = false;
+        if (node instanceof BinaryOperation) {
+            BinaryOperation binary = (BinaryOperation) node;
+            int left = number(binary.getLeftChild());
+            int right = number(binary.getRightChild());
+            key = binary.getOperator() + " " + left + " " + right;
+            operation = true;
+        } else if (node instanceof UnaryOperation) {
+            UnaryOperation unary = (UnaryOperation) node;
+            key = unary.getOperator() + " " + number(unary.getExpression());
+            operation = true;
+        } else if (node instanceof Variable) {
+            String name = ((Variable) node).getName();
+            key = "v " + name + " " + this.versions.getOrDefault(name, 0);
+        } else if (node instanceof Constant) {
+            key = "k " + ((Constant) node).getValue();
+        } else {
+            // Not something this pass understands; never equal to anything else.
+            key = "? " + this.numbers.size();
+        }
+        Integer value = this.numbers.get(key);
+        if (value == null) {
+            value = this.numbers.size();
+            this.numbers.put(key, value);
+        }
+        this.valueOf.put(node, value);
+        if (operation) {
+            this.firstOf.putIfAbsent(value, node);
+        }
+        return value;
+    }
+
+    /**
+     * Mark the values that an expression recomputes. The search stops at
+     * the largest recomputed subtrees, since nothing inside them will run.
+     *
+     * @param node the root of the expression
+     */
+    private void findReuses(ExpressionNode node) {
+        Integer value = this.valueOf.get(node);
+        ExpressionNode first = this.firstOf.get(value);
+        if (first != null && first != node) {
+            this.shared.add(value);
+            this.eliminated++;
+        } else if (node instanceof BinaryOperation) {
+            findReuses(((BinaryOperation) node).getLeftChild());
+            findReuses(((BinaryOperation) node).getRightChild());
+        } else if (node instanceof UnaryOperation) {
+            findReuses(((UnaryOperation) node).getExpression());
+        }
+    }
+
+    /**
+     * Build the optimized copy of an expression.
+     *
+     * @param node the root of the original expression
+     * @return the root of the copy
+     */
+    private ExpressionNode rebuild(ExpressionNode node) {
+        Integer value = this.valueOf.get(node);
+        if (this.shared.contains(value)) {
+            if (this.firstOf.get(value) != node) {
+                return new Variable(this.temporaries.get(value));
+            }
+            String name = SharedExpression.TEMPORARY_PREFIX + this.temporaryCount++;
+            this.temporaries.put(value, name);
+            return new SharedExpression(name, rebuildChildren(node));
+        }
+        return rebuildChildren(node);
+    }
+
+    private ExpressionNode rebuildChildren(ExpressionNode node) {
+        if (node instanceof BinaryOperation) {
+            BinaryOperation binary = (BinaryOperation) node;
+            ExpressionNode left = rebuild(binary.getLeftChild());
+            ExpressionNode right = rebuild(binary.getRightChild());
+            if (left != binary.getLeftChild() || right != binary.getRightChild()) {
+                return new BinaryOperation(binary.getOperator(), left, right);
+            }
+        } else if (node instanceof UnaryOperation) {
+            UnaryOperation unary = (UnaryOperation) node;
+            ExpressionNode operand = rebuild(unary.getExpression());
+            if (operand != unary.getExpression()) {
+                return new UnaryOperation(unary.getOperator(), operand);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @return the number of recomputations removed by all passes so far
+     */
+    public int getEliminated() {
+        return this.eliminated;
+    }
+
+    /**
+     * @return the number of compiler temporaries introduced by all passes so far
+     */
+    public int getTemporaries() {
+        return this.temporaryCount;
+    }
+}
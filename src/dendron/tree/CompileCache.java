@@ -0,0 +1,287 @@
+package dendron.tree;
+
+import dendron.machine.Executable;
+import dendron.machine.Machine;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A cache of compiled programs, for a service that is asked to run the
+ * same few programs over and over.
+ * <p>
+ * Programs are looked up by the SHA-256 hash of their tokens, so the
+ * same program given twice is compiled once. What the cache returns is
+ * an {@link Executable}, which never changes and can be run by any
+ * number of Machines at the same time.
+ * <p>
+ * The cache holds at most a given total weight of programs, a program's
+ * weight being its number of instructions. When it is over, the least
+ * recently used programs are dropped. Any number of threads may use the
+ * cache at once: looking up a cached program takes no lock, and when
+ * several threads ask for the same uncached program, one compiles it
+ * and the others wait for its result rather than compiling it again.
+ * Finding the program to drop looks at every cached program, but that
+ * only happens after a compile, which costs far more.
+ *
+ * @author Pedro Breton
+ */
+public final class CompileCache {
+
+    /**
+     * The SHA-256 hash of a token list
+     */
+    private static final class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(this.digest, ((Key) other).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * A cached program, or one that is still being compiled
+     */
+    private static final class Entry {
+        private final CompletableFuture<Executable> program = new CompletableFuture<>();
+        private volatile long lastUsed;
+        private volatile int weight;
+    }
+
+    private final long maxWeight;
+    private final Function<ParseTree, List<Machine.Instruction>> compiler;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+
+    /**
+     * Create a cache that compiles with {@link ParseTree#compile()}.
+     *
+     * @param maxWeight the most instructions the cached programs may
+     *                  have between them
+     */
+    public CompileCache(long maxWeight) {
+        this(maxWeight, ParseTree::compile);
+    }
+
+    /**
+     * Create a cache that compiles in some other way, for example with
+     * optimizations.
+     *
+     * @param maxWeight the most instructions the cached programs may
+     *                  have between them
+     * @param compiler  makes the instructions for a parsed program; it
+     *                  may be called by several threads at once
+     */
+    public CompileCache(long maxWeight, Function<ParseTree, List<Machine.Instruction>> compiler) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("cache weight must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.compiler = compiler;
+    }
+
+    /**
+     * Get the compiled form of a program, compiling it if it is not
+     * cached.
+     *
+     * @param tokens the program's tokens
+     * @return the compiled program
+     * @throws dendron.DendronSyntaxException if the program is not well
+     *                                        formed; nothing is cached
+     */
+    public Executable get(List<String> tokens) {
+        Key key = keyOf(tokens);
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            Entry fresh = new Entry();
+            entry = this.entries.putIfAbsent(key, fresh);
+            if (entry == null) {
+                this.misses.increment();
+                return load(key, fresh, tokens);
+            }
+        }
+        Executable program;
+        try {
+            program = entry.program.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+        this.hits.increment();
+        entry.lastUsed = System.nanoTime();
+        return program;
+    }
+
+    /**
+     * Compile a program into the entry this thread has just added, then
+     * make room for it.
+     */
+    private Executable load(Key key, Entry entry, List<String> tokens) {
+        long start = System.nanoTime();
+        Executable program;
+        try {
+            program = Executable.of(this.compiler.apply(new ParseTree(tokens)));
+        } catch (Throwable e) {
+            // Errors too: a waiting thread must never be left blocked
+            this.loadFailures.increment();
+            this.entries.remove(key, entry);
+            entry.program.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loadTime.add(System.nanoTime() - start);
+        }
+        entry.weight = program.length() + 1;
+        entry.lastUsed = System.nanoTime();
+        entry.program.complete(program);
+        if (this.weight.addAndGet(entry.weight) > this.maxWeight) {
+            evict();
+        }
+        return program;
+    }
+
+    /**
+     * Drop least recently used programs until the cache is within its
+     * weight. Programs still being compiled are never dropped; they are
+     * not counted in the weight yet.
+     */
+    private void evict() {
+        synchronized (this.evictionLock) {
+            while (this.weight.get() > this.maxWeight) {
+                Map.Entry<Key, Entry> oldest = null;
+                for (Map.Entry<Key, Entry> candidate : this.entries.entrySet()) {
+                    Entry entry = candidate.getValue();
+                    if (entry.program.isDone() && (oldest == null || entry.lastUsed < oldest.getValue().lastUsed)) {
+                        oldest = candidate;
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                if (this.entries.remove(oldest.getKey(), oldest.getValue())) {
+                    this.weight.addAndGet(-oldest.getValue().weight);
+                    this.evictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash a token list. Each token's UTF-8 bytes are followed by a zero
+     * byte, which no token contains, so different lists cannot run
+     * together into the same bytes.
+     */
+    private static Key keyOf(List<String> tokens) {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (String token : tokens) {
+            sha.update(token.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+        }
+        return new Key(sha.digest());
+    }
+
+    /**
+     * @return the number of programs cached, including any still being
+     * compiled
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the total weight of the cached programs
+     */
+    public long getWeight() {
+        return this.weight.get();
+    }
+
+    /**
+     * @return how many lookups found their program cached, or got it
+     * from another thread that was compiling it
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return how many lookups had to compile their program
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return how many programs have been dropped to stay within the
+     * weight
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return how many compiles have failed
+     */
+    public long getLoadFailureCount() {
+        return this.loadFailures.sum();
+    }
+
+    /**
+     * @return the total time spent compiling, in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return this.loadTime.sum();
+    }
+
+    /**
+     * Show the cache statistics, one per line.
+     *
+     * @return the report text
+     */
+    public String report() {
+        long lookups = getHitCount() + getMissCount();
+        return String.format("%-14s %10d\n", "hits", getHitCount()) +
+                String.format("%-14s %10d\n", "misses", getMissCount()) +
+                String.format("%-14s %10.1f%%\n", "hit rate", lookups == 0 ? 0.0 : 100.0 * getHitCount() / lookups) +
+                String.format("%-14s %10d\n", "evictions", getEvictionCount()) +
+                String.format("%-14s %10d\n", "load failures", getLoadFailureCount()) +
+                String.format("%-14s %10.2f ms\n", "load time", getTotalLoadTime() / 1e6) +
+                String.format("%-14s %10d / %d\n", "weight", getWeight(), this.maxWeight);
+    }
+}
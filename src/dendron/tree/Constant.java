@@ -2,9 +2,8 @@ package dendron.tree;
 
 import dendron.machine.Machine;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * An expression node representing a constant, i.e., literal value
@@ -21,6 +20,13 @@ public class Constant implements ExpressionNode {
         this.value = value;
     }
 
+    /**
+     * @return this Constant's value
+     */
+    int getValue() {
+        return this.value;
+    }
+
     /**
      * Evaluate the constant
      * @param symTab symbol table, if needed, to fetch variable values
@@ -42,12 +48,10 @@ public class Constant implements ExpressionNode {
 
     /**
      * Emit an instruction to push the value onto the stack.
-     * @return a list containing that one instruction
+     * @param code where that one instruction goes
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> list = new ArrayList<>();
-        list.add(new Machine.PushConst(this.value));
-        return list;
+    public void emit(Consumer<Machine.Instruction> code) {
+        code.accept(new Machine.PushConst(this.value));
     }
 }
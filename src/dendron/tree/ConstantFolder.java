@@ -0,0 +1,107 @@
+package dendron.tree;
+
+/**
+ * An optimization pass that replaces every operation whose operands are
+ * all constants by a single Constant holding its value. Folding works
+ * from the leaves up, so whole constant subtrees collapse to one node.
+ * <p>
+ * Operations that would fail when run (a division by zero, the square
+ * root of a negative number) are left in place so that the error is
+ * still reported when the program runs, not when it is compiled.
+ *
+ * @author Pedro Breton
+ */
+public class ConstantFolder {
+
+    private int nodesRemoved;
+
+    /**
+     * Create a folder that has not yet removed anything.
+     */
+    public ConstantFolder() {
+        this.nodesRemoved = 0;
+    }
+
+    /**
+     * Fold the expressions of every statement in a program, in place.
+     *
+     * @param program the program to optimize
+     */
+    public void fold(Program program) {
+        program.rewrite(action ->
+                Nodes.withExpression(action, fold(Nodes.expressionOf(action))));
+    }
+
+    /**
+     * Fold an expression tree.
+     *
+     * @param node the root of the tree; may be null
+     * @return the root of the folded tree, which is the given node
+     * if nothing in it could be folded
+     */
+    public ExpressionNode fold(ExpressionNode node) {
+        if (node instanceof BinaryOperation) {
+            return foldBinary((BinaryOperation) node);
+        } else if (node instanceof UnaryOperation) {
+            return foldUnary((UnaryOperation) node);
+        }
+        return node;
+    }
+
+    private ExpressionNode foldBinary(BinaryOperation node) {
+        ExpressionNode left = fold(node.getLeftChild());
+        ExpressionNode right = fold(node.getRightChild());
+        if (left instanceof Constant && right instanceof Constant) {
+            int a = ((Constant) left).getValue();
+            int b = ((Constant) right).getValue();
+            if (!node.getOperator().equals(BinaryOperation.DIV) || b != 0) {
+                this.nodesRemoved += 2;
+                return new Constant(apply(node.getOperator(), a, b));
+            }
+        }
+        if (left == node.getLeftChild() && right == node.getRightChild()) {
+            return node;
+        }
+        return new BinaryOperation(node.getOperator(), left, right);
+    }
+
+    private ExpressionNode foldUnary(UnaryOperation node) {
+        ExpressionNode operand = fold(node.getExpression());
+        if (operand instanceof Constant) {
+            int a = ((Constant) operand).getValue();
+            if (!node.getOperator().equals(UnaryOperation.SQRT) || a >= 0) {
+                this.nodesRemoved += 1;
+                return new Constant(node.getOperator().equals(UnaryOperation.NEG)
+                        ? -a
+                        : (int) Math.sqrt(a));
+            }
+        }
+        if (operand == node.getExpression()) {
+            return node;
+        }
+        return new UnaryOperation(node.getOperator(), operand);
+    }
+
+    /**
+     * Do the arithmetic exactly as BinaryOperation.evaluate does.
+     */
+    private static int apply(String operator, int a, int b) {
+        switch (operator) {
+            case BinaryOperation.ADD:
+                return a + b;
+            case BinaryOperation.SUB:
+                return a - b;
+            case BinaryOperation.MUL:
+                return a * b;
+            default:
+                return a / b;
+        }
+    }
+
+    /**
+     * @return the number of tree nodes removed by all folding done so far
+     */
+    public int getNodesRemoved() {
+        return this.nodesRemoved;
+    }
+}
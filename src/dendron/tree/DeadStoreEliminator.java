@@ -0,0 +1,143 @@
+package dendron.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+
+/**
+ * An optimization pass that removes assignments whose values can never
+ * be observed: the variable is assigned again before it is read, or it
+ * is never read at all.
+ * <p>
+ * What counts as observable is set by a {@link Policy}. Printed values
+ * always are; the final contents of the symbol table may or may not be.
+ * The pass works backwards through the program keeping the set of
+ * variables whose current value may still be observed (liveness), and
+ * drops each assignment to a variable that is not in the set.
+ * <p>
+ * A removed statement is never evaluated, so an error it would have
+ * raised (a division by zero, say) is no longer reported.
+ *
+ * @author Pedro Breton
+ */
+public class DeadStoreEliminator {
+
+    /**
+     * What the program is allowed to show to the outside world.
+     */
+    public enum Policy {
+        /**
+         * Only the values printed by "@" statements matter.
+         */
+        PRINTS_ONLY,
+        /**
+         * Printed values and the final value of every variable matter.
+         */
+        PRINTS_AND_SYMBOLS
+    }
+
+    private final Policy policy;
+    private final List<ActionNode> removed;
+
+    /**
+     * Create a pass that keeps whatever the policy says is observable.
+     *
+     * @param policy what counts as an observable output
+     */
+    public DeadStoreEliminator(Policy policy) {
+        this.policy = policy;
+        this.removed = new ArrayList<>();
+    }
+
+    /**
+     * Remove the dead assignments from a program, in place.
+     *
+     * @param program the program to optimize
+     */
+    public void eliminate(Program program) {
+        List<ActionNode> actions = program.getActions();
+        Set<String> live = new HashSet<>();
+        if (this.policy == Policy.PRINTS_AND_SYMBOLS) {
+            for (ActionNode action : actions) {
+                if (action instanceof Assignment) {
+                    live.add(((Assignment) action).getName());
+                }
+            }
+        }
+
+        Set<ActionNode> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        ListIterator<ActionNode> backwards = actions.listIterator(actions.size());
+        while (backwards.hasPrevious()) {
+            ActionNode action = backwards.previous();
+            if (action instanceof Assignment) {
+                Assignment assignment = (Assignment) action;
+                Set<String> defined = new HashSet<>();
+                defined.add(assignment.getName());
+                temporariesIn(assignment.getExpression(), defined);
+                if (Collections.disjoint(defined, live)) {
+                    dead.add(action);
+                    continue;
+                }
+                live.removeAll(defined);
+                variablesIn(assignment.getExpression(), live);
+            } else if (action instanceof Print) {
+                variablesIn(((Print) action).getExpression(), live);
+            } else {
+                // Not something this pass understands; keep it and everything before it.
+                break;
+            }
+        }
+
+        if (!dead.isEmpty()) {
+            program.rewrite(action -> {
+                if (dead.contains(action)) {
+                    this.removed.add(action);
+                    return null;
+                }
+                return action;
+            });
+        }
+    }
+
+    /**
+     * Collect the names of all variables and temporaries an expression reads.
+     */
+    private static void variablesIn(ExpressionNode node, Set<String> names) {
+        if (node instanceof Variable) {
+            names.add(((Variable) node).getName());
+        } else if (node instanceof BinaryOperation) {
+            variablesIn(((BinaryOperation) node).getLeftChild(), names);
+            variablesIn(((BinaryOperation) node).getRightChild(), names);
+        } else if (node instanceof UnaryOperation) {
+            variablesIn(((UnaryOperation) node).getExpression(), names);
+        } else if (node instanceof SharedExpression) {
+            variablesIn(((SharedExpression) node).getExpression(), names);
+        }
+    }
+
+    /**
+     * Collect the names of the compiler temporaries an expression sets.
+     */
+    private static void temporariesIn(ExpressionNode node, Set<String> names) {
+        if (node instanceof SharedExpression) {
+            names.add(((SharedExpression) node).getName());
+            temporariesIn(((SharedExpression) node).getExpression(), names);
+        } else if (node instanceof BinaryOperation) {
+            temporariesIn(((BinaryOperation) node).getLeftChild(), names);
+            temporariesIn(((BinaryOperation) node).getRightChild(), names);
+        } else if (node instanceof UnaryOperation) {
+            temporariesIn(((UnaryOperation) node).getExpression(), names);
+        }
+    }
+
+    /**
+     * @return the statements removed so far, in program order
+     */
+    public List<ActionNode> getRemoved() {
+        return Collections.unmodifiableList(this.removed);
+    }
+}
@@ -0,0 +1,204 @@
+package dendron.tree;
+
+import dendron.DendronRuntimeException;
+import dendron.Errors;
+import dendron.OutputSink;
+import dendron.machine.Machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Check that expressions far too deep for recursion on the Java stack
+ * can be evaluated, compiled and displayed.
+ * <p>
+ * Each case is an assignment whose expression is a chain of operations
+ * a million deep: leaning right, leaning left, unary, mixed, shared,
+ * and one that divides by zero at the very bottom. The statement is
+ * parsed, interpreted, run through the parallel {@link StatementGraph},
+ * compiled and run on the Machine, and displayed,
+ * and the value, the display and the error are compared with what they
+ * must be. Any difference is reported and makes the exit status 1.
+ *
+ * @author Pedro Breton
+ */
+public class DeepExpressionTest {
+
+    private static int failures;
+
+    /**
+     * Run the checks.
+     *
+     * @param args optionally, the depth of the expressions (default
+     *             1000000)
+     */
+    public static void main(String... args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        // + 1 + 1 ... + 1 0
+        check("right-leaning +", depth, chain(depth, "+", "1"), "0", Collections.emptyList(), depth,
+                repeat(depth, "( 1 + ") + "0" + repeat(depth, " )"));
+
+        // - - ... - x 1 1 ... 1
+        List<String> ones = new ArrayList<>(Collections.nCopies(depth, "1"));
+        check("left-leaning -", depth, chain(depth, "-"), "x", ones, 5 - depth,
+                repeat(depth, "( ") + "x" + repeat(depth, " - 1 )"));
+
+        // _ _ ... _ x
+        check("negations", depth, chain(depth, "_"), "x", Collections.emptyList(), depth % 2 == 0 ? 5 : -5,
+                repeat(depth, "_") + "x");
+
+        // _ * 1 _ * 1 ... x
+        check("mixed _ and *", depth / 2 * 2, chain(depth / 2, "_", "*", "1"), "x", Collections.emptyList(),
+                depth / 2 % 2 == 0 ? 5 : -5, repeat(depth / 2, "_( 1 * ") + "x" + repeat(depth / 2, " )"));
+
+        // # # ... # 16, then shared so that the value is also kept in $0
+        List<String> roots = chain(depth, "#");
+        Map<String, Integer> symTab = new HashMap<>();
+        SharedExpression shared = new SharedExpression(SharedExpression.TEMPORARY_PREFIX + "0",
+                expression(roots, "16", Collections.emptyList()));
+        expect("shared roots: value", 1, shared.evaluate(symTab));
+        expect("shared roots: temporary", 1, symTab.get(shared.getName()));
+        Machine machine = new Machine();
+        List<Machine.Instruction> code = shared.emit();
+        code.add(new Machine.Store("r"));
+        machine.run(code);
+        expect("shared roots: machine", 1, machine.getSymbolTable().get("r"));
+        expect("shared roots: display", "[$0 = " + repeat(depth, "#") + "16]", display(shared));
+
+        // + 1 + 1 ... / 1 0
+        List<String> bottom = chain(depth - 1, "+", "1");
+        bottom.add("/");
+        bottom.add("1");
+        try {
+            int value = expression(bottom, "0", Collections.emptyList()).evaluate(new HashMap<>());
+            fail("divide by zero", "returned " + value);
+        } catch (DendronRuntimeException e) {
+            expect("divide by zero", Errors.Type.DIVIDE_BY_ZERO, e.getType());
+        }
+
+        if (failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("All deep expressions passed");
+    }
+
+    /**
+     * Check one chain: its value in the tree interpreter, in the
+     * parallel interpreter and on the Machine, and its display.
+     *
+     * @param name     the name to report
+     * @param depth    the chain's depth
+     * @param before   the tokens before its innermost operand
+     * @param operand  its innermost operand
+     * @param after    the tokens after its innermost operand
+     * @param expected its value when x is 5
+     * @param text     its display
+     */
+    private static void check(String name, int depth, List<String> before, String operand, List<String> after,
+                              int expected, String text) {
+        long start = System.nanoTime();
+        ExpressionNode expr = expression(before, operand, after);
+        expect(name + ": height", depth + 1, Expressions.heightOf(expr));
+
+        Map<String, Integer> symTab = new HashMap<>();
+        symTab.put("x", 5);
+        expect(name + ": value", expected, expr.evaluate(symTab));
+
+        List<String> tokens = new ArrayList<>(Arrays.asList(":=", "x", "5", ":=", "r"));
+        tokens.addAll(before);
+        tokens.add(operand);
+        tokens.addAll(after);
+        symTab = new HashMap<>();
+        new ParseTree(tokens).dependencyGraph().execute(symTab, ForkJoinPool.commonPool(), OutputSink.DISCARD);
+        expect(name + ": parallel", expected, symTab.get("r"));
+
+        List<Machine.Instruction> code = new ArrayList<>();
+        code.add(new Machine.PushConst(5));
+        code.add(new Machine.Store("x"));
+        expr.emit(code::add);
+        code.add(new Machine.Store("r"));
+        Machine machine = new Machine();
+        machine.run(code);
+        expect(name + ": machine", expected, machine.getSymbolTable().get("r"));
+
+        expect(name + ": display", text, display(expr));
+        System.out.printf("%-16s depth %d, %.0f ms\n", name, depth, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Parse the expression of ":= r" followed by some tokens.
+     */
+    private static ExpressionNode expression(List<String> before, String operand, List<String> after) {
+        List<String> tokens = new ArrayList<>(before.size() + after.size() + 3);
+        tokens.add(":=");
+        tokens.add("r");
+        tokens.addAll(before);
+        tokens.add(operand);
+        tokens.addAll(after);
+        Assignment statement = (Assignment) new ParseTree(tokens).getProgram().getActions().get(0);
+        return statement.getExpression();
+    }
+
+    /**
+     * @return the tokens repeated, the given number of times, as a list
+     */
+    private static List<String> chain(int times, String... tokens) {
+        List<String> list = new ArrayList<>(times * tokens.length);
+        for (int i = 0; i < times; ++i) {
+            Collections.addAll(list, tokens);
+        }
+        return list;
+    }
+
+    /**
+     * @return the text repeated, the given number of times
+     */
+    private static String repeat(int times, String text) {
+        StringBuilder repeated = new StringBuilder(times * text.length());
+        for (int i = 0; i < times; ++i) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+
+    /**
+     * @return what the node's infixDisplay prints
+     */
+    private static String display(DendronNode node) {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(text, false, StandardCharsets.UTF_8));
+        try {
+            node.infixDisplay();
+            System.out.flush();
+        } finally {
+            System.setOut(out);
+        }
+        return text.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void expect(String name, Object expected, Object actual) {
+        if (!expected.equals(actual)) {
+            String shown = String.valueOf(actual);
+            fail(name, "expected " + abbreviate(expected.toString()) + ", got " + abbreviate(shown));
+        }
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() <= 60 ? text : text.substring(0, 60) + "... (" + text.length() + " chars)";
+    }
+
+    private static void fail(String name, String message) {
+        System.out.println("FAILED " + name + ": " + message);
+        ++failures;
+    }
+}
@@ -1,6 +1,8 @@
 package dendron.tree;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import dendron.machine.Machine;
 
@@ -19,13 +21,27 @@ public interface DendronNode {
      */
     void infixDisplay();
 
+    /**
+     * Generate the instructions that, when executed, represent the
+     * intent of this DendronNode and its descendants, handing them to
+     * a sink in order. Nothing is copied on the way, so a whole program
+     * is emitted in time and space linear in its size.
+     *
+     * @param code where the Machine Instructions for this node go
+     */
+    void emit(Consumer<Machine.Instruction> code);
+
     /**
      * Generate a list of instructions that, when executed, represents
      * the intent of this DendronNode and its descendants.
      *
      * @return the Machine Instructions for this node
      */
-    List<Machine.Instruction> emit();
+    default List<Machine.Instruction> emit() {
+        List<Machine.Instruction> code = new ArrayList<>();
+        emit(code::add);
+        return code;
+    }
 }
 
 
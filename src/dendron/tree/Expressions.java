@@ -0,0 +1,283 @@
+package dendron.tree;
+
+import dendron.machine.Machine;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Evaluation, code generation and display for expression trees of any
+ * height, without recursion, and a walk over every node for passes that
+ * only need to look at them.
+ * <p>
+ * Every operation node knows its height. A tree no taller than
+ * {@link #RECURSION_LIMIT} is handled by the nodes' own recursive
+ * methods, which are the fastest way for the expressions people write.
+ * A taller tree, which only a program generator is likely to make,
+ * would overflow the Java stack that way, so its nodes call the methods
+ * here instead. They walk the tree keeping their place in an explicit
+ * stack on the heap, and hand each subtree that is short enough back to
+ * the recursive methods. The results, including which error is raised
+ * first, are exactly those of the recursive methods.
+ *
+ * @author Pedro Breton
+ */
+final class Expressions {
+
+    /**
+     * The tallest tree that is walked by recursion
+     */
+    static final int RECURSION_LIMIT = 256;
+
+    /**
+     * Do not instantiate this class.
+     */
+    private Expressions() {
+    }
+
+    /**
+     * Get the height of an expression tree.
+     *
+     * @param node the root of the tree
+     * @return the number of nodes on the longest path from the root to a
+     * leaf; 1 for a leaf
+     */
+    static int heightOf(ExpressionNode node) {
+        if (node instanceof BinaryOperation) {
+            return ((BinaryOperation) node).getHeight();
+        } else if (node instanceof UnaryOperation) {
+            return ((UnaryOperation) node).getHeight();
+        } else if (node instanceof SharedExpression) {
+            return ((SharedExpression) node).getHeight();
+        }
+        return 1;
+    }
+
+    /**
+     * The nodes still to be finished in a walk of a tree, and how far
+     * each one has got: how many of its operands have been visited.
+     */
+    private static final class Walk {
+        private ExpressionNode[] nodes = new ExpressionNode[64];
+        private int[] stages = new int[64];
+        private int size;
+
+        Walk(ExpressionNode root) {
+            push(root);
+        }
+
+        boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        ExpressionNode node() {
+            return this.nodes[this.size - 1];
+        }
+
+        /**
+         * @return how many times {@link #advance()} has been called on
+         * the top node
+         */
+        int stage() {
+            return this.stages[this.size - 1];
+        }
+
+        void advance() {
+            ++this.stages[this.size - 1];
+        }
+
+        void push(ExpressionNode node) {
+            if (this.size == this.nodes.length) {
+                this.nodes = Arrays.copyOf(this.nodes, 2 * this.size);
+                this.stages = Arrays.copyOf(this.stages, 2 * this.size);
+            }
+            this.nodes[this.size] = node;
+            this.stages[this.size] = 0;
+            ++this.size;
+        }
+
+        void pop() {
+            this.nodes[--this.size] = null;
+        }
+    }
+
+    /**
+     * Evaluate an expression.
+     *
+     * @param root   the expression
+     * @param symTab the table where variable values are stored
+     * @return the value
+     * @see ExpressionNode#evaluate(Map)
+     */
+    static int evaluate(ExpressionNode root, Map<String, Integer> symTab) {
+        Walk walk = new Walk(root);
+        int[] values = new int[64];
+        int count = 0;
+        while (!walk.isEmpty()) {
+            ExpressionNode node = walk.node();
+            if (count + 2 > values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            if (heightOf(node) <= RECURSION_LIMIT) {
+                walk.pop();
+                values[count++] = node.evaluate(symTab);
+            } else if (node instanceof BinaryOperation) {
+                BinaryOperation binary = (BinaryOperation) node;
+                switch (walk.stage()) {
+                    case 0:
+                        walk.advance();
+                        walk.push(binary.getLeftChild());
+                        break;
+                    case 1:
+                        walk.advance();
+                        walk.push(binary.getRightChild());
+                        break;
+                    default:
+                        walk.pop();
+                        count -= 1;
+                        values[count - 1] = BinaryOperation.apply(binary.getOperator(), values[count - 1], values[count]);
+                        break;
+                }
+            } else if (walk.stage() == 0) {
+                walk.advance();
+                walk.push(operandOf(node));
+            } else {
+                walk.pop();
+                if (node instanceof UnaryOperation) {
+                    values[count - 1] = UnaryOperation.apply(((UnaryOperation) node).getOperator(), values[count - 1]);
+                } else {
+                    symTab.put(((SharedExpression) node).getName(), values[count - 1]);
+                }
+            }
+        }
+        return values[0];
+    }
+
+    /**
+     * Generate the Machine instructions for an expression.
+     *
+     * @param root the expression
+     * @param code where the instructions go
+     * @see DendronNode#emit(Consumer)
+     */
+    static void emit(ExpressionNode root, Consumer<Machine.Instruction> code) {
+        Walk walk = new Walk(root);
+        while (!walk.isEmpty()) {
+            ExpressionNode node = walk.node();
+            if (heightOf(node) <= RECURSION_LIMIT) {
+                walk.pop();
+                node.emit(code);
+            } else if (node instanceof BinaryOperation) {
+                BinaryOperation binary = (BinaryOperation) node;
+                switch (walk.stage()) {
+                    case 0:
+                        walk.advance();
+                        walk.push(binary.getLeftChild());
+                        break;
+                    case 1:
+                        walk.advance();
+                        walk.push(binary.getRightChild());
+                        break;
+                    default:
+                        walk.pop();
+                        code.accept(BinaryOperation.instruction(binary.getOperator()));
+                        break;
+                }
+            } else if (walk.stage() == 0) {
+                walk.advance();
+                walk.push(operandOf(node));
+            } else {
+                walk.pop();
+                if (node instanceof UnaryOperation) {
+                    code.accept(UnaryOperation.instruction(((UnaryOperation) node).getOperator()));
+                } else {
+                    code.accept(new Machine.Duplicate());
+                    code.accept(new Machine.Store(((SharedExpression) node).getName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Show an expression in infix form on standard output.
+     *
+     * @param root the expression
+     * @see DendronNode#infixDisplay()
+     */
+    static void infixDisplay(ExpressionNode root) {
+        Walk walk = new Walk(root);
+        while (!walk.isEmpty()) {
+            ExpressionNode node = walk.node();
+            if (heightOf(node) <= RECURSION_LIMIT) {
+                walk.pop();
+                node.infixDisplay();
+            } else if (node instanceof BinaryOperation) {
+                BinaryOperation binary = (BinaryOperation) node;
+                switch (walk.stage()) {
+                    case 0:
+                        System.out.print("( ");
+                        walk.advance();
+                        walk.push(binary.getLeftChild());
+                        break;
+                    case 1:
+                        System.out.print(" " + binary.getOperator() + " ");
+                        walk.advance();
+                        walk.push(binary.getRightChild());
+                        break;
+                    default:
+                        System.out.print(" )");
+                        walk.pop();
+                        break;
+                }
+            } else if (node instanceof UnaryOperation) {
+                System.out.print(((UnaryOperation) node).getOperator());
+                walk.pop();
+                walk.push(operandOf(node));
+            } else if (walk.stage() == 0) {
+                System.out.printf("[%s = ", ((SharedExpression) node).getName());
+                walk.advance();
+                walk.push(operandOf(node));
+            } else {
+                System.out.print("]");
+                walk.pop();
+            }
+        }
+    }
+
+    /**
+     * Visit every node of an expression tree of any height, each one
+     * after the nodes below it and left operands before right ones: the
+     * order in which evaluation finishes with them.
+     *
+     * @param root  the expression
+     * @param visit what to do with each node
+     */
+    static void forEachNode(ExpressionNode root, Consumer<ExpressionNode> visit) {
+        Walk walk = new Walk(root);
+        while (!walk.isEmpty()) {
+            ExpressionNode node = walk.node();
+            if (node instanceof BinaryOperation && walk.stage() < 2) {
+                BinaryOperation binary = (BinaryOperation) node;
+                ExpressionNode operand = walk.stage() == 0 ? binary.getLeftChild() : binary.getRightChild();
+                walk.advance();
+                walk.push(operand);
+            } else if ((node instanceof UnaryOperation || node instanceof SharedExpression) && walk.stage() == 0) {
+                walk.advance();
+                walk.push(operandOf(node));
+            } else {
+                walk.pop();
+                visit.accept(node);
+            }
+        }
+    }
+
+    /**
+     * @return the one operand of a unary operation or shared expression
+     */
+    private static ExpressionNode operandOf(ExpressionNode node) {
+        return node instanceof UnaryOperation
+                ? ((UnaryOperation) node).getExpression()
+                : ((SharedExpression) node).getExpression();
+    }
+}
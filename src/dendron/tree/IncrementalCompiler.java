@@ -0,0 +1,236 @@
+package dendron.tree;
+
+import dendron.DendronSyntaxException;
+import dendron.Lexer;
+import dendron.SourcePosition;
+import dendron.machine.Machine;
+import dendron.machine.PeepholeOptimizer;
+import dendron.machine.SlotTable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles successive versions of a program, reusing the code made for
+ * every statement that has not changed since the previous version.
+ * <p>
+ * A program is given as a list of statements, each the source text of
+ * one statement (or of a few). Each piece of text is compiled on its
+ * own, to Machine instructions whose LOADs and STOREs are bound to
+ * slots, and kept in a cache keyed by the text. Statements whose text
+ * is in the cache from the previous version are not parsed or emitted
+ * again, so a small edit costs one lookup per unchanged statement plus
+ * the work for the changed ones. Keeping the same String objects for
+ * unchanged statements makes each lookup cheap, since a String keeps
+ * its hash.
+ * <p>
+ * The optimizations used here, constant folding and the peephole
+ * optimizer, are applied to each statement by itself, so a statement's
+ * code never depends on any other statement and is reused as it is.
+ * Variables keep their slots from one version to the next; only when a
+ * variable is no longer used anywhere are the slots numbered again.
+ *
+ * @author Pedro Breton
+ */
+public final class IncrementalCompiler {
+
+    /**
+     * The compiled code for a piece of text, and the slots it uses
+     */
+    private static final class Entry {
+        private final List<Machine.Instruction> code;
+        private final int[] slots;
+
+        Entry(List<Machine.Instruction> code) {
+            this.code = code;
+            Set<Integer> used = new LinkedHashSet<>();
+            for (Machine.Instruction instr : code) {
+                if (instr instanceof Machine.Load) {
+                    used.add(((Machine.Load) instr).getSlot());
+                } else if (instr instanceof Machine.Store) {
+                    used.add(((Machine.Store) instr).getSlot());
+                }
+            }
+            this.slots = new int[used.size()];
+            int i = 0;
+            for (int slot : used) {
+                this.slots[i++] = slot;
+            }
+        }
+    }
+
+    private final boolean foldConstants;
+    private final PeepholeOptimizer optimizer;
+
+    private SlotTable slots;
+    private Map<String, Entry> cache;
+    private int reused;
+    private int compiled;
+
+    /**
+     * Create a compiler that does no optimization.
+     */
+    public IncrementalCompiler() {
+        this(false, null);
+    }
+
+    /**
+     * Create a compiler that optimizes each statement.
+     *
+     * @param foldConstants whether to fold constant subexpressions
+     * @param optimizer     the peephole optimizer to run on each
+     *                      statement's code, or null for none; its rule
+     *                      hit counts are updated
+     * @see ConstantFolder
+     */
+    public IncrementalCompiler(boolean foldConstants, PeepholeOptimizer optimizer) {
+        this.foldConstants = foldConstants;
+        this.optimizer = optimizer;
+        this.slots = new SlotTable();
+        this.cache = new HashMap<>();
+    }
+
+    /**
+     * Compile a version of the program. The code kept for statements of
+     * the previous version that are not in this one is dropped.
+     *
+     * @param statements the source text of each statement, in order
+     * @return the Machine instructions for the whole program, bound to
+     * slots and ready to run like those of {@link ParseTree#compile()}
+     * @throws DendronSyntaxException if a statement is not well formed;
+     *                                its line is the number of the
+     *                                statement in the list
+     */
+    public List<Machine.Instruction> compile(List<String> statements) {
+        Map<String, Entry> next = new HashMap<>();
+        List<Entry> entries = new ArrayList<>(statements.size());
+        BitSet used = new BitSet();
+        int size = 0;
+        this.reused = 0;
+        this.compiled = 0;
+
+        int number = 0;
+        for (String statement : statements) {
+            ++number;
+            Entry entry = next.get(statement);
+            if (entry == null) {
+                entry = this.cache.get(statement);
+                if (entry == null) {
+                    entry = new Entry(compileStatement(statement, number));
+                    ++this.compiled;
+                } else {
+                    ++this.reused;
+                }
+                next.put(statement, entry);
+            } else {
+                ++this.reused;
+            }
+            entries.add(entry);
+            for (int slot : entry.slots) {
+                used.set(slot);
+            }
+            size += entry.code.size();
+        }
+        this.cache = next;
+
+        if (used.cardinality() < this.slots.size()) {
+            entries = renumber(statements, entries);
+            size = 0;
+            for (Entry entry : entries) {
+                size += entry.code.size();
+            }
+        }
+
+        List<Machine.Instruction> program = new ArrayList<>(size);
+        for (Entry entry : entries) {
+            program.addAll(entry.code);
+        }
+        return program;
+    }
+
+    /**
+     * @return how many statements of the last version compiled were
+     * found in the cache
+     */
+    public int getReused() {
+        return this.reused;
+    }
+
+    /**
+     * @return how many statements of the last version compiled had to
+     * be parsed and emitted
+     */
+    public int getCompiled() {
+        return this.compiled;
+    }
+
+    /**
+     * Parse, optimize and emit one piece of source text.
+     */
+    private List<Machine.Instruction> compileStatement(String statement, int number) {
+        List<Machine.Instruction> code = new ArrayList<>();
+        StatementParser parser = new StatementParser(Lexer.of(statement));
+        try {
+            for (ActionNode action = parser.next(); action != null; action = parser.next()) {
+                if (this.foldConstants) {
+                    action = Nodes.withExpression(action, new ConstantFolder().fold(Nodes.expressionOf(action)));
+                }
+                action.emit(code::add);
+            }
+        } catch (DendronSyntaxException e) {
+            SourcePosition where = e.getPosition();
+            throw new DendronSyntaxException(e.getType(), e.getInfo(), where == null ? null
+                    : SourcePosition.of(where.getToken(), number, where.getColumn()));
+        }
+        code = Machine.resolve(code, this.slots);
+        if (this.optimizer != null) {
+            code = this.optimizer.optimize(code);
+        }
+        return Collections.unmodifiableList(code);
+    }
+
+    /**
+     * Give the variables new slots, numbered in order of first use as a
+     * whole-program compile would, after some have gone out of use. The
+     * cached code is rebound to the new slots.
+     *
+     * @return the entries for the statements, rebound
+     */
+    private List<Entry> renumber(List<String> statements, List<Entry> entries) {
+        SlotTable fresh = new SlotTable();
+        Map<Entry, Entry> rebound = new HashMap<>();
+        List<Entry> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Entry copy = rebound.get(entry);
+            if (copy == null) {
+                List<Machine.Instruction> code = new ArrayList<>(entry.code.size());
+                for (Machine.Instruction instr : entry.code) {
+                    if (instr instanceof Machine.Load) {
+                        String name = ((Machine.Load) instr).getName();
+                        code.add(new Machine.Load(name, fresh.slotOf(name)));
+                    } else if (instr instanceof Machine.Store) {
+                        String name = ((Machine.Store) instr).getName();
+                        code.add(new Machine.Store(name, fresh.slotOf(name)));
+                    } else {
+                        code.add(instr);
+                    }
+                }
+                copy = new Entry(Collections.unmodifiableList(code));
+                rebound.put(entry, copy);
+            }
+            result.add(copy);
+        }
+        int i = 0;
+        for (String statement : statements) {
+            this.cache.put(statement, result.get(i++));
+        }
+        this.slots = fresh;
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+package dendron.tree;
+
+/**
+ * Helpers shared by the passes that look inside or rebuild parts of a
+ * parse tree. Statements are Assignment and Print nodes, each holding
+ * exactly one expression.
+ *
+ * @author Pedro Breton
+ */
+final class Nodes {
+
+    /**
+     * Do not instantiate this class.
+     */
+    private Nodes() {
+    }
+
+    /**
+     * Get the single expression held by a statement.
+     *
+     * @param action an Assignment or a Print
+     * @return its expression, or null for any other kind of ActionNode
+     */
+    static ExpressionNode expressionOf(ActionNode action) {
+        if (action instanceof Assignment) {
+            return ((Assignment) action).getExpression();
+        } else if (action instanceof Print) {
+            return ((Print) action).getExpression();
+        }
+        return null;
+    }
+
+    /**
+     * Build a copy of a statement holding a different expression.
+     *
+     * @param action an Assignment or a Print
+     * @param expr   the new expression
+     * @return the new statement, or the given one if the expression is unchanged
+     * or the action is not an Assignment or a Print
+     */
+    static ActionNode withExpression(ActionNode action, ExpressionNode expr) {
+        if (expr == expressionOf(action)) {
+            return action;
+        } else if (action instanceof Assignment) {
+            return new Assignment(((Assignment) action).getName(), expr);
+        } else if (action instanceof Print) {
+            return new Print(expr);
+        }
+        return action;
+    }
+}
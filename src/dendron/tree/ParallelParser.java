@@ -0,0 +1,272 @@
+package dendron.tree;
+
+import dendron.DendronSyntaxException;
+import dendron.Lexer;
+import dendron.SourcePosition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Parses a large source file on several threads at once.
+ * <p>
+ * Every statement starts with a ":=" or "@" token, so a file can be cut
+ * wherever a line starts with one of them and each piece parsed on its
+ * own. The pieces are parsed as tasks in a {@link ForkJoinPool}. Each
+ * one counts its tokens and lines, and once they are all done those
+ * counts say where every piece starts in the whole file, so the source
+ * positions found in the pieces can be moved to their true places.
+ * <p>
+ * The result is the same Program, with the same positions, that
+ * parsing the file from start to end gives, and a syntax error is the
+ * first one in the file, wherever it was found first.
+ *
+ * @author Pedro Breton
+ */
+final class ParallelParser {
+
+    /**
+     * The smallest piece worth a task of its own, in bytes
+     */
+    private static final int MIN_CHUNK = 1 << 20;
+
+    /**
+     * How many pieces to aim for per thread, so that a thread that is
+     * given quick pieces can take on more
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Do not instantiate this class.
+     */
+    private ParallelParser() {
+    }
+
+    /**
+     * One piece of the file, and what parsing it found
+     */
+    private static final class Chunk {
+        private final ByteBuffer source;
+        private final int start;
+        private final int end;
+
+        private final List<ActionNode> actions = new ArrayList<>();
+        private final List<SourcePosition> positions = new ArrayList<>();
+        private int tokens;
+        private int lines;
+        private DendronSyntaxException error;
+
+        private int tokenOffset;
+        private int lineOffset;
+
+        Chunk(ByteBuffer source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Parse the piece, stopping at its first syntax error.
+         */
+        void parse() {
+            ByteBuffer piece = this.source.duplicate();
+            piece.limit(this.end).position(this.start);
+            Lexer lexer = Lexer.of(piece);
+            StatementParser parser = new StatementParser(lexer);
+            try {
+                for (ActionNode action = parser.next(); action != null; action = parser.next()) {
+                    this.actions.add(action);
+                    this.positions.add(parser.position());
+                }
+            } catch (DendronSyntaxException e) {
+                this.error = e;
+                return;
+            }
+            this.tokens = lexer.tokenIndex() + 1;
+            this.lines = lexer.line() - 1;
+        }
+
+        /**
+         * Move the positions of the statements to where they are in
+         * the whole file.
+         */
+        void shift() {
+            if (this.tokenOffset != 0 || this.lineOffset != 0) {
+                this.positions.replaceAll(p -> p.shift(this.tokenOffset, this.lineOffset));
+            }
+        }
+    }
+
+    /**
+     * Do some work on each of a range of pieces, splitting the range
+     * in half until there is one piece per task.
+     */
+    private static final class ForEach extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+        private final Consumer<Chunk> work;
+
+        ForEach(Chunk[] chunks, int from, int to, Consumer<Chunk> work) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.work.accept(this.chunks[this.from]);
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ForEach(this.chunks, this.from, middle, this.work),
+                        new ForEach(this.chunks, middle, this.to, this.work));
+            }
+        }
+    }
+
+    /**
+     * Parse a UTF-8 source file, which is mapped into memory.
+     *
+     * @param file the source file
+     * @param pool the threads to parse with
+     * @return the program
+     * @throws IOException            if the file cannot be opened or mapped
+     * @throws DendronSyntaxException if the program is not well formed
+     */
+    static Program parse(Path file, ForkJoinPool pool) throws IOException {
+        ByteBuffer source;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return parse(source, pool);
+    }
+
+    /**
+     * Parse UTF-8 source text held in a buffer, from its start to its
+     * limit.
+     *
+     * @param source the source text
+     * @param pool   the threads to parse with
+     * @return the program
+     * @throws DendronSyntaxException if the program is not well formed
+     */
+    static Program parse(ByteBuffer source, ForkJoinPool pool) {
+        int target = Math.max(MIN_CHUNK, source.limit() / (CHUNKS_PER_THREAD * pool.getParallelism()));
+        int[] bounds = split(source, target);
+        Chunk[] chunks = new Chunk[bounds.length - 1];
+        for (int i = 0; i < chunks.length; ++i) {
+            chunks[i] = new Chunk(source, bounds[i], bounds[i + 1]);
+        }
+        pool.invoke(new ForEach(chunks, 0, chunks.length, Chunk::parse));
+
+        int tokens = 0;
+        int lines = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk.error != null) {
+                DendronSyntaxException e = chunk.error;
+                throw new DendronSyntaxException(e.getType(), e.getInfo(),
+                        e.getPosition() == null ? null : e.getPosition().shift(tokens, lines));
+            }
+            chunk.tokenOffset = tokens;
+            chunk.lineOffset = lines;
+            tokens += chunk.tokens;
+            lines += chunk.lines;
+        }
+        pool.invoke(new ForEach(chunks, 0, chunks.length, Chunk::shift));
+
+        Program program = new Program();
+        for (Chunk chunk : chunks) {
+            program.addActions(chunk.actions, chunk.positions);
+        }
+        return program;
+    }
+
+    /**
+     * Choose where to cut the source: at the start of the first
+     * statement line at least the target size past the previous cut.
+     *
+     * @return the offsets of the cuts, starting with 0 and ending with
+     * the size of the source
+     */
+    private static int[] split(ByteBuffer source, int target) {
+        int size = source.limit();
+        int[] bounds = new int[16];
+        int count = 1;
+        int at = target;
+        while (at < size) {
+            int cut = nextStatementLine(source, at);
+            if (cut == size) {
+                break;
+            }
+            if (count + 1 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            }
+            bounds[count++] = cut;
+            at = cut + target;
+        }
+        bounds[count++] = size;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * @return the offset of the first line starting at or after an
+     * offset whose first token is ":=" or "@", or the size of the
+     * source if there is none
+     */
+    private static int nextStatementLine(ByteBuffer source, int from) {
+        int size = source.limit();
+        for (int i = from; i < size; ++i) {
+            if (source.get(i) == '\n') {
+                int j = i + 1;
+                while (j < size && isSpace(source.get(j))) {
+                    ++j;
+                }
+                if (startsStatement(source, j)) {
+                    return i + 1;
+                }
+                i = j - 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return whether the token at an offset is ":=" or "@"
+     */
+    private static boolean startsStatement(ByteBuffer source, int at) {
+        int size = source.limit();
+        int length;
+        if (at < size && source.get(at) == '@') {
+            length = 1;
+        } else if (at + 1 < size && source.get(at) == ':' && source.get(at + 1) == '=') {
+            length = 2;
+        } else {
+            return false;
+        }
+        return at + length == size || isSpace(source.get(at + length));
+    }
+
+    /**
+     * @return whether a byte is ASCII white space. Other white space
+     * also separates tokens, but it is never chosen as a place to cut.
+     */
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ' && Character.isWhitespace(b);
+    }
+}
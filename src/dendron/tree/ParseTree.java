@@ -1,11 +1,24 @@
 package dendron.tree;
 
+import dendron.DendronSyntaxException;
 import dendron.Errors;
+import dendron.ExecutionResult;
+import dendron.Lexer;
+import dendron.OutputBuffer;
+import dendron.OutputSink;
+import dendron.jvm.BytecodeCompiler;
+import dendron.jvm.JvmProgram;
+import dendron.machine.Executable;
 import dendron.machine.Machine;
-import dendron.tree.ActionNode;
-import dendron.tree.ExpressionNode;
+import dendron.machine.PeepholeOptimizer;
+import dendron.machine.Profiler;
+import dendron.machine.RegisterMachine;
+import dendron.machine.RegisterProgram;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Operations that are done on a Dendron code parse tree.
@@ -15,11 +28,29 @@ import java.util.*;
  * @author Pedro Breton
  */
 public class ParseTree {
+
+    /**
+     * The ways a parse tree can be compiled and run.
+     *
+     * @see #run(Engine)
+     */
+    public enum Engine {
+        /**
+         * Instructions for the stack {@link Machine}
+         */
+        STACK,
+        /**
+         * Instructions for the {@link RegisterMachine}
+         */
+        REGISTER,
+        /**
+         * JVM bytecode, run by the JVM itself
+         */
+        JVM
+    }
+
     private Map<String, Integer> symTab;
-    private ArrayList<List<String>> tokensClusters = new ArrayList<>();
-    private ArrayList<ActionNode> actions = new ArrayList<>();
     private Program program;
-    private Stack stack = new Stack();
 
     /**
      * Parse the entire list of program tokens. The program is a
@@ -28,68 +59,54 @@ public class ParseTree {
      * stored internally.
      *
      * @param program the token list (Strings)
+     * @throws DendronSyntaxException if the program is not well formed
      */
     public ParseTree(List<String> program) {
+        this(Lexer.of(program));
+    }
+
+    /**
+     * Parse every token a lexer has left. Errors are reported with the
+     * line and column of the offending token when the lexer is reading
+     * source text.
+     *
+     * @param lexer the source of the program's tokens
+     * @throws DendronSyntaxException if the program is not well formed
+     * @throws java.io.UncheckedIOException if the lexer cannot read its source
+     */
+    public ParseTree(Lexer lexer) {
         this.symTab = new HashMap<>();
         this.program = new Program();
 
-        // For loop makes a new list of collections of tokens that represent an action expression
-        for (String token : program) {
-            switch (token) {
-                case ":=":
-                case "@":
-                    tokensClusters.add(new ArrayList<>());
-                    tokensClusters.get(tokensClusters.size() - 1).add(token);
-                    break;
-                default:
-                    tokensClusters.get(tokensClusters.size() - 1).add(token);
-            }
-        }
-
-        // For every collection of tokens in tokencluster use a stack to parse the action expression
-        // THe collection is read from right to left, pushing and popping when needed.
-        for (List<String> tokens : tokensClusters) {
-            for (int i = tokens.size() - 1; i >= 0; i--) {
-                String token = tokens.get(i);
-                switch (token) {
-                    case ":=":
-                        Variable var = (Variable) stack.pop();
-                        actions.add(new Assignment(var.getName(), (ExpressionNode) stack.pop()));
-                        break;
-                    case "@":
-                        actions.add(new Print((ExpressionNode) stack.pop()));
-                        break;
-
-                    case "+":
-                    case "-":
-                    case "*":
-                    case "/":
-                        stack.push(new BinaryOperation(token, (ExpressionNode) stack.pop(), (ExpressionNode) stack.pop()));
-                        break;
-
-                    case "_":
-                    case "#":
-                        stack.push(new UnaryOperation(token, (ExpressionNode) stack.pop()));
-                        break;
-
-                    default:
-                        if (token.matches("^[a-zA-Z].*")) {
-                            stack.push(new Variable(token));
-
-                        } else if (token.matches("[-+]?\\d+")) {
-                            stack.push(new Constant(Integer.parseInt(token)));
-                        } else {
-                            Errors.report(Errors.Type.ILLEGAL_VALUE, "Not a valid Expression");
-                        }
-                }
-            }
+        StatementParser parser = new StatementParser(lexer);
+        for (ActionNode action = parser.next(); action != null; action = parser.next()) {
+            this.program.addAction(action, parser.position());
         }
+    }
 
-        // Add every action node to the Program
-        for (ActionNode action : actions) {
-            this.program.addAction(action);
-        }
+    /**
+     * Parse a UTF-8 source file on several threads at once. The file is
+     * cut into pieces at lines that start a statement, and the pieces
+     * are parsed as separate tasks. The tree, and any syntax error, is
+     * the same as parsing the file from start to end would give.
+     *
+     * @param file the source file
+     * @param pool the threads to parse with, such as
+     *             {@link ForkJoinPool#commonPool()}
+     * @throws IOException            if the file cannot be read
+     * @throws DendronSyntaxException if the program is not well formed
+     * @see ParallelParser
+     */
+    public ParseTree(Path file, ForkJoinPool pool) throws IOException {
+        this.symTab = new HashMap<>();
+        this.program = ParallelParser.parse(file, pool);
+    }
 
+    /**
+     * Package access to the program tree, for drivers such as benchmarks.
+     */
+    Program getProgram() {
+        return this.program;
     }
 
     /**
@@ -104,9 +121,154 @@ public class ParseTree {
         System.out.println();
     }
 
+    /**
+     * Compile the program represented by the tree all the way to JVM
+     * bytecode, loaded as a hidden class in this JVM.
+     *
+     * @return the loaded program, which may be run repeatedly
+     * @see BytecodeCompiler
+     */
+    public JvmProgram compileToJvm() {
+        return BytecodeCompiler.compile(compile());
+    }
+
+    /**
+     * Build the code for the RegisterMachine for the program
+     * represented by the tree.
+     *
+     * @return the register program, which may be run repeatedly
+     * @see RegisterCompiler
+     */
+    public RegisterProgram compileToRegisters() {
+        return new RegisterCompiler().compile(program);
+    }
+
+    /**
+     * Compile the program represented by the tree for one of the
+     * engines, show the code where there is a listing for it, and
+     * run it, reporting the symbol table at the end.
+     *
+     * @param engine the engine to compile for and run on
+     * @throws dendron.DendronRuntimeException if the program fails while running
+     */
+    public void run(Engine engine) {
+        switch (engine) {
+            case STACK:
+                List<Machine.Instruction> code = compile();
+                Machine.displayInstructions(code);
+                Machine.execute(code);
+                break;
+            case REGISTER:
+                RegisterProgram registerCode = compileToRegisters();
+                RegisterMachine.displayInstructions(registerCode);
+                RegisterMachine.execute(registerCode);
+                break;
+            case JVM:
+                compileToJvm().execute();
+                break;
+        }
+    }
+
+    /**
+     * Compile the program represented by the tree for one of the
+     * engines and run it without showing anything: what it prints and
+     * its final variables are returned instead, for a caller that runs
+     * Dendron programs itself.
+     *
+     * @param engine the engine to compile for and run on
+     * @return what the program printed, and its final symbol table
+     * @throws dendron.DendronRuntimeException if the program fails while running
+     */
+    public ExecutionResult execute(Engine engine) {
+        OutputBuffer output = new OutputBuffer();
+        switch (engine) {
+            case STACK:
+                Machine machine = new Machine(output);
+                machine.run(compile());
+                return new ExecutionResult(output.toArray(), machine.getSymbolTable());
+            case REGISTER:
+                RegisterMachine registerMachine = new RegisterMachine(output);
+                registerMachine.run(compileToRegisters());
+                return new ExecutionResult(output.toArray(), registerMachine.getSymbolTable());
+            case JVM:
+                JvmProgram jvmCode = compileToJvm();
+                int[] frame = jvmCode.run(output);
+                return new ExecutionResult(output.toArray(), jvmCode.getSymbolTable(frame));
+            default:
+                throw new IllegalArgumentException("unknown engine " + engine);
+        }
+    }
+
+    /**
+     * Compile the program represented by the tree and run it on the
+     * stack Machine with a {@link Profiler} attached. What it prints is
+     * thrown away.
+     *
+     * @param runs how many times to run it; the later runs show the code
+     *             once the JIT has compiled it
+     * @return the profile of all the runs, which traces the hottest
+     * instructions back to their statements' source positions
+     * @throws dendron.DendronRuntimeException if the program fails while running
+     */
+    public Profiler profile(int runs) {
+        Profiler profiler = new Profiler(program.getPositions());
+        Machine machine = new Machine(OutputSink.DISCARD);
+        machine.setProfiler(profiler);
+        Executable code = Executable.of(compile());
+        for (int run = 0; run < runs; ++run) {
+            machine.run(code);
+        }
+        return profiler;
+    }
+
+    /**
+     * Collapse every constant-only subexpression of the program into a
+     * single Constant, so that neither the interpreter nor the compiled
+     * code recomputes it. Errors such as a constant divide by zero are
+     * left for the program to report when it runs.
+     *
+     * @return the number of tree nodes that were removed
+     * @see ConstantFolder
+     */
+    public int foldConstants() {
+        ConstantFolder folder = new ConstantFolder();
+        folder.fold(program);
+        return folder.getNodesRemoved();
+    }
+
+    /**
+     * Make the program compute each repeated subexpression only once,
+     * keeping the value in a compiler temporary for later uses. Both
+     * the interpreter and the compiled code benefit.
+     *
+     * @return the number of recomputations that were removed
+     * @see CommonSubexpressions
+     */
+    public int eliminateCommonSubexpressions() {
+        CommonSubexpressions cse = new CommonSubexpressions();
+        cse.eliminate(program);
+        return cse.getEliminated();
+    }
+
+    /**
+     * Remove the assignments whose values can never be observed. The
+     * removed statements are not evaluated at all any more.
+     *
+     * @param policy whether only printed values, or printed values and
+     *               the final symbol table, count as observable
+     * @return the statements that were removed, in program order
+     * @see DeadStoreEliminator
+     */
+    public List<ActionNode> eliminateDeadStores(DeadStoreEliminator.Policy policy) {
+        DeadStoreEliminator dse = new DeadStoreEliminator(policy);
+        dse.eliminate(program);
+        return dse.getRemoved();
+    }
+
     /**
      * Run the program represented by the tree directly
      *
+     * @throws dendron.DendronRuntimeException if the program fails while running
      * @see dendron.tree.ActionNode#execute(Map)
      */
     public void interpret() {
@@ -117,15 +279,102 @@ public class ParseTree {
         Errors.dump(symTab);
     }
 
+    /**
+     * Run the program represented by the tree directly, from an empty
+     * symbol table, without showing anything: what it prints and its
+     * final variables are returned instead. The symbol table that
+     * {@link #interpret()} uses is left alone.
+     *
+     * @return what the program printed, and its final symbol table
+     * @throws dendron.DendronRuntimeException if the program fails while running
+     */
+    public ExecutionResult execute() {
+        OutputBuffer output = new OutputBuffer();
+        Map<String, Integer> variables = new HashMap<>();
+        program.execute(variables, output);
+        return new ExecutionResult(output.toArray(), variables);
+    }
+
+    /**
+     * Run the program represented by the tree directly, running
+     * statements that do not depend on one another in parallel. The
+     * output is the same as {@link #interpret()} gives.
+     *
+     * @param pool the threads to run statements on
+     * @throws dendron.DendronRuntimeException if the program fails while running
+     * @see #dependencyGraph()
+     */
+    public void interpretParallel(ForkJoinPool pool) {
+        System.out.println("Interpreting the parse tree...");
+        dependencyGraph().execute(this.symTab, pool);
+        System.out.println("Interpretation complete.\n");
+
+        Errors.dump(symTab);
+    }
+
+    /**
+     * Work out which statements of the program need values from which
+     * others, to see how much of it can run in parallel, or to run it.
+     *
+     * @return the graph of the statements' dependencies
+     * @see StatementGraph
+     */
+    public StatementGraph dependencyGraph() {
+        return new StatementGraph(program);
+    }
+
+    /**
+     * Run the program represented by the tree after first compiling
+     * it into evaluator objects, which is much faster than walking the
+     * tree when a program is big or is run many times. The output is
+     * the same as {@link #interpret()} gives the first time it is called.
+     *
+     * @throws dendron.DendronRuntimeException if the program fails while running
+     * @see #compileClosures()
+     */
+    public void interpretCompiled() {
+        System.out.println("Interpreting the parse tree...");
+        this.symTab.putAll(compileClosures().run());
+        System.out.println("Interpretation complete.\n");
+
+        Errors.dump(symTab);
+    }
+
+    /**
+     * Compile the program represented by the tree into evaluator
+     * objects for repeated interpretation.
+     *
+     * @return the compiled program
+     * @see ClosureProgram
+     */
+    public ClosureProgram compileClosures() {
+        return ClosureProgram.compile(program);
+    }
+
     /**
      * Build the list of machine instructions for
-     * the program represented by the tree.
+     * the program represented by the tree. Variable references
+     * are resolved to Machine slots as part of compilation.
      *
      * @return the Machine.Instruction list
-     * @see Machine.Instruction#execute()
+     * @see Machine.Instruction#execute(Machine)
+     * @see Machine#resolve(List)
      */
     public List<Machine.Instruction> compile() {
-        return program.emit();
+        return Machine.resolve(program.emit());
+    }
+
+    /**
+     * Build the list of machine instructions for the program
+     * represented by the tree, and run it through a peephole optimizer.
+     *
+     * @param optimizer the optimizer to use; its rule hit counts are
+     *                  updated
+     * @return the optimized Machine.Instruction list
+     * @see #compile()
+     */
+    public List<Machine.Instruction> compile(PeepholeOptimizer optimizer) {
+        return optimizer.optimize(compile());
     }
 
 }
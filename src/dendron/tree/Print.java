@@ -1,16 +1,21 @@
 package dendron.tree;
 
+import dendron.OutputSink;
 import dendron.machine.Machine;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * A node that represents the displaying of the value of an expression on the console
  * @author Pedro Breton
  */
 public class Print implements ActionNode {
+    /**
+     * What comes before each printed value on its line of standard output
+     */
+    public static final String PREFIX = "=== ";
+
     private ExpressionNode printee;
 
     /**
@@ -22,12 +27,21 @@ public class Print implements ActionNode {
     }
 
     /**
-     * Evaluate the expression and display the result on the console. Precede it with three equal signs.
+     * @return the expression to be evaluated and printed
+     */
+    ExpressionNode getExpression() {
+        return this.printee;
+    }
+
+    /**
+     * Evaluate the expression and hand the result to the output. On the console it is preceded by three
+     * equal signs.
      * @param symTab the table where variable values are stored
+     * @param output where the result goes
      */
     @Override
-    public void execute(Map<String, Integer> symTab) {
-        System.out.printf("=== %s\n", printee.evaluate(symTab));
+    public void execute(Map<String, Integer> symTab, OutputSink output) {
+        output.accept(printee.evaluate(symTab));
     }
 
     /**
@@ -42,13 +56,12 @@ public class Print implements ActionNode {
     /**
      * This method returns the code emitted by the printee node that pushes the value of the printee expression
      * onto the stack, followed by a PRINT instruction
-     * @return a list of instructions ending in the ones that compute the value to be printed, and print it.
+     * @param code where the instructions go: the ones that compute the value to be printed, and the one that
+     * prints it.
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> list = new ArrayList<>();
-        list.addAll(this.printee.emit());
-        list.add(new Machine.Print());
-        return list;
+    public void emit(Consumer<Machine.Instruction> code) {
+        this.printee.emit(code);
+        code.accept(new Machine.Print());
     }
 }
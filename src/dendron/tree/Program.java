@@ -1,11 +1,18 @@
 package dendron.tree;
 
+import dendron.DendronException;
+import dendron.OutputSink;
+import dendron.SourcePosition;
 import dendron.machine.Machine;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * An ActionNode used to represent a sequence of other ActionNodes. The main use of this node type is to be the root of
@@ -14,12 +21,14 @@ import java.util.Map;
  */
 public class Program implements ActionNode {
     private LinkedList<ActionNode> actionList;
+    private LinkedList<SourcePosition> positions;
 
     /**
      * Initialize this instance as an empty sequence of ActionNode children.
      */
     public Program() {
         actionList = new LinkedList<>();
+        positions = new LinkedList<>();
     }
 
     /**
@@ -27,18 +36,82 @@ public class Program implements ActionNode {
      * @param newNode node to add
      */
     public void addAction(ActionNode newNode) {
+        addAction(newNode, null);
+    }
+
+    /**
+     * Add a child of this Program node, remembering where it came from in the source
+     * so that errors raised while it executes can be located.
+     * @param newNode node to add
+     * @param position the position of the statement's first token, or null if not known
+     */
+    public void addAction(ActionNode newNode, SourcePosition position) {
         actionList.add(newNode);
+        positions.add(position);
+    }
+
+    /**
+     * Add a run of children, with their source positions, at the end.
+     * @param nodes the nodes to add, in order
+     * @param where the position of each node's first token, in the same order
+     */
+    void addActions(List<ActionNode> nodes, List<SourcePosition> where) {
+        actionList.addAll(nodes);
+        positions.addAll(where);
+    }
+
+    /**
+     * @return a read-only view of the children, first-added first
+     */
+    List<ActionNode> getActions() {
+        return Collections.unmodifiableList(actionList);
+    }
+
+    /**
+     * @return a read-only view of the children's source positions, in the same
+     * order as {@link #getActions()}; an unknown position is null
+     */
+    List<SourcePosition> getPositions() {
+        return Collections.unmodifiableList(positions);
+    }
+
+    /**
+     * Replace every child by the result of applying a function to it. The source
+     * position of a child carries over to its replacement. Children for which the
+     * function returns null are removed.
+     * @param rewriter the function giving each child's replacement
+     */
+    void rewrite(UnaryOperator<ActionNode> rewriter) {
+        ListIterator<ActionNode> nodes = actionList.listIterator();
+        ListIterator<SourcePosition> where = positions.listIterator();
+        while (nodes.hasNext()) {
+            ActionNode replacement = rewriter.apply(nodes.next());
+            where.next();
+            if (replacement == null) {
+                nodes.remove();
+                where.remove();
+            } else {
+                nodes.set(replacement);
+            }
+        }
     }
 
     /**
      * Execute each ActionNode in this object, from first-added to last-added.
      * @param symTab the table where variable values are stored
+     * @param output where printed values go
+     * @throws DendronException if a child fails; it carries the child's source position
      */
     @Override
-    public void execute(Map<String, Integer> symTab) {
-
+    public void execute(Map<String, Integer> symTab, OutputSink output) {
+        Iterator<SourcePosition> where = positions.iterator();
         for (ActionNode node : actionList) {
-            node.execute(symTab);
+            SourcePosition position = where.next();
+            try {
+                node.execute(symTab, output);
+            } catch (DendronException e) {
+                throw e.locate(position);
+            }
         }
 
     }
@@ -55,15 +128,13 @@ public class Program implements ActionNode {
     }
 
     /**
-     * Create a list of instructions emitted by each child, from the first-added child to the last-added.
-     * @return the concatenated instructions lists from all children
+     * Emit the instructions of each child, from the first-added child to the last-added.
+     * @param code where the instructions of all children go, one after another
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> list = new ArrayList<>();
+    public void emit(Consumer<Machine.Instruction> code) {
         for (ActionNode node : actionList) {
-            list.addAll(node.emit());
+            node.emit(code);
         }
-        return list;
     }
 }
@@ -0,0 +1,160 @@
+package dendron.tree;
+
+import dendron.DendronException;
+import dendron.Errors;
+import dendron.Lexer;
+import dendron.OutputSink;
+import dendron.machine.Machine;
+import dendron.machine.SlotTable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A program that is parsed and used one statement at a time, rather
+ * than built into a {@link ParseTree} first. Each statement is parsed,
+ * then either executed or compiled, and then dropped, so the memory
+ * needed depends only on the largest statement and on the number of
+ * distinct variables, however long the program is.
+ * <p>
+ * A stream can be consumed only once. A syntax error is reported when
+ * the parser reaches it, so the statements before it will already have
+ * run or been emitted.
+ *
+ * @author Pedro Breton
+ */
+public final class ProgramStream {
+
+    private final StatementParser parser;
+    private long statements;
+
+    /**
+     * Set up a stream over every token a lexer has left.
+     *
+     * @param lexer the source of the program's tokens
+     */
+    public ProgramStream(Lexer lexer) {
+        this.parser = new StatementParser(lexer);
+    }
+
+    /**
+     * Parse and execute each statement in turn against a symbol table,
+     * as {@link Program#execute(Map)} does for a whole tree, showing
+     * what the program prints on standard output.
+     *
+     * @param symTab the table where variable values are stored
+     * @throws dendron.DendronSyntaxException if a statement is not well formed
+     * @throws dendron.DendronRuntimeException if a statement fails while
+     *                                         running; it carries the
+     *                                         statement's source position
+     * @throws UncheckedIOException if the lexer cannot read its source
+     */
+    public void execute(Map<String, Integer> symTab) {
+        OutputSink output = OutputSink.console(Print.PREFIX);
+        try {
+            execute(symTab, output);
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Parse and execute each statement in turn against a symbol table.
+     *
+     * @param symTab the table where variable values are stored
+     * @param output where printed values go; it is not flushed here
+     * @throws dendron.DendronSyntaxException if a statement is not well formed
+     * @throws dendron.DendronRuntimeException if a statement fails while
+     *                                         running; it carries the
+     *                                         statement's source position
+     * @throws UncheckedIOException if the lexer cannot read its source
+     */
+    public void execute(Map<String, Integer> symTab, OutputSink output) {
+        for (ActionNode action = this.parser.next(); action != null; action = this.parser.next()) {
+            ++this.statements;
+            try {
+                action.execute(symTab, output);
+            } catch (DendronException e) {
+                throw e.locate(this.parser.position());
+            }
+        }
+    }
+
+    /**
+     * Parse and compile each statement in turn, handing its Machine
+     * instructions to a sink. LOADs and STOREs are bound to slots in
+     * the given table as they go by, so the instructions are the same
+     * as {@link ParseTree#compile()} makes for the whole program.
+     *
+     * @param slots the table to record variable slots in
+     * @param sink  where the instructions go, in program order
+     * @throws dendron.DendronSyntaxException if a statement is not well formed
+     * @throws UncheckedIOException if the lexer cannot read its source
+     */
+    public void emit(SlotTable slots, Consumer<Machine.Instruction> sink) {
+        for (ActionNode action = this.parser.next(); action != null; action = this.parser.next()) {
+            ++this.statements;
+            List<Machine.Instruction> code = Machine.resolve(action.emit(), slots);
+            for (Machine.Instruction instr : code) {
+                sink.accept(instr);
+            }
+        }
+    }
+
+    /**
+     * @return how many statements have been parsed so far
+     */
+    public long getStatementCount() {
+        return this.statements;
+    }
+
+    /**
+     * Run a Dendron program file, or compile it to an assembly file
+     * that {@link dendron.machine.FastAssembler} can read, without ever
+     * holding the whole program in memory.
+     *
+     * @param args a source file, and optionally the assembly file to write
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java ProgramStream source-file [assembly-code-file]");
+            System.exit(1);
+        }
+        try (Lexer lexer = Lexer.open(Paths.get(args[0]))) {
+            ProgramStream stream = new ProgramStream(lexer);
+            if (args.length == 1) {
+                Map<String, Integer> symTab = new HashMap<>();
+                System.out.println("Interpreting the program as it is read...");
+                stream.execute(symTab);
+                System.out.println("Interpretation complete.\n");
+                Errors.dump(symTab);
+            } else {
+                try (Writer out = Files.newBufferedWriter(Paths.get(args[1]))) {
+                    stream.emit(new SlotTable(), instr -> {
+                        try {
+                            out.write(instr.toString());
+                            out.write('\n');
+                        } catch (IOException ioe) {
+                            throw new UncheckedIOException(ioe);
+                        }
+                    });
+                }
+            }
+        } catch (IOException ioe) {
+            System.err.println(ioe.getMessage());
+            System.exit(1);
+        } catch (UncheckedIOException uioe) {
+            System.err.println(uioe.getCause().getMessage());
+            System.exit(1);
+        } catch (DendronException de) {
+            Errors.abort(de);
+        }
+    }
+}
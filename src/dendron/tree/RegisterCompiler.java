@@ -0,0 +1,236 @@
+package dendron.tree;
+
+import dendron.Errors;
+import dendron.machine.RegisterMachine;
+import dendron.machine.RegisterProgram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generate code for the {@link RegisterMachine} from a program tree.
+ * <p>
+ * Registers are allocated in three groups. Each variable, including the
+ * compiler temporaries of {@link SharedExpression}s, gets a register of
+ * its own for the whole program. Each distinct constant also gets one,
+ * loaded once at the start, so a constant operand costs no instruction.
+ * The rest are scratch registers for intermediate results, allocated
+ * like a stack: a subtree's scratch registers are free again as soon as
+ * its parent has used them, so a statement needs no more of them than
+ * its expression is deep.
+ * <p>
+ * The top operation of an assignment writes straight into the variable's
+ * register. Its operands have all been read by then, so this is safe
+ * even when the variable appears on both sides.
+ * <p>
+ * Since a program has no jumps, the generator knows at each read whether
+ * the variable has been given a value yet. A read that must fail becomes
+ * a FAIL instruction, and nothing after it is generated.
+ *
+ * @author Pedro Breton
+ */
+public class RegisterCompiler {
+
+    private final Map<String, Integer> variables = new LinkedHashMap<>();
+    private final Map<Integer, Integer> constants = new LinkedHashMap<>();
+    private final List<RegisterMachine.Instruction> code = new ArrayList<>();
+    private boolean[] assigned;
+    private int scratchBase;
+    private int nextScratch;
+    private int registerCount;
+    private boolean unreachable;
+
+    /**
+     * Create a code generator. Each generator compiles one program.
+     */
+    public RegisterCompiler() {
+    }
+
+    /**
+     * Generate the register code for a program.
+     *
+     * @param program the program tree
+     * @return the register program
+     * @throws IllegalStateException if this generator has already been used
+     */
+    public RegisterProgram compile(Program program) {
+        if (this.assigned != null) {
+            throw new IllegalStateException("RegisterCompiler already used");
+        }
+        List<ActionNode> actions = program.getActions();
+        for (ActionNode action : actions) {
+            allocate(action);
+        }
+        this.assigned = new boolean[this.variables.size()];
+        int register = this.variables.size();
+        for (Map.Entry<Integer, Integer> constant : this.constants.entrySet()) {
+            constant.setValue(register);
+            this.code.add(new RegisterMachine.LoadConst(register++, constant.getKey()));
+        }
+        this.scratchBase = register;
+        this.nextScratch = this.scratchBase;
+        this.registerCount = this.scratchBase;
+
+        for (ActionNode action : actions) {
+            if (this.unreachable) {
+                break;
+            }
+            generate(action);
+        }
+        return new RegisterProgram(this.code, this.registerCount,
+                new ArrayList<>(this.variables.keySet()), this.assigned);
+    }
+
+    /**
+     * First pass: give every variable and constant of a statement its register.
+     */
+    private void allocate(ActionNode action) {
+        if (action instanceof Assignment) {
+            allocate(((Assignment) action).getExpression());
+            variable(((Assignment) action).getName());
+        } else if (action instanceof Print) {
+            allocate(((Print) action).getExpression());
+        } else {
+            throw new IllegalArgumentException("cannot compile " + action.getClass().getSimpleName());
+        }
+    }
+
+    private void allocate(ExpressionNode node) {
+        if (node instanceof Constant) {
+            this.constants.put(((Constant) node).getValue(), -1);
+        } else if (node instanceof Variable) {
+            variable(((Variable) node).getName());
+        } else if (node instanceof BinaryOperation) {
+            allocate(((BinaryOperation) node).getLeftChild());
+            allocate(((BinaryOperation) node).getRightChild());
+        } else if (node instanceof UnaryOperation) {
+            allocate(((UnaryOperation) node).getExpression());
+        } else if (node instanceof SharedExpression) {
+            allocate(((SharedExpression) node).getExpression());
+            variable(((SharedExpression) node).getName());
+        }
+    }
+
+    private int variable(String name) {
+        Integer register = this.variables.get(name);
+        if (register == null) {
+            register = this.variables.size();
+            this.variables.put(name, register);
+        }
+        return register;
+    }
+
+    /**
+     * Second pass: generate the code for one statement.
+     */
+    private void generate(ActionNode action) {
+        if (action instanceof Assignment) {
+            Assignment assignment = (Assignment) action;
+            int target = this.variables.get(assignment.getName());
+            store(target, generate(assignment.getExpression(), target));
+        } else {
+            int source = generate(((Print) action).getExpression(), -1);
+            if (!this.unreachable) {
+                this.code.add(new RegisterMachine.Print(source));
+            }
+        }
+        this.nextScratch = this.scratchBase;
+    }
+
+    /**
+     * Finish an assignment to a variable's register.
+     */
+    private void store(int target, int source) {
+        if (this.unreachable) {
+            return;
+        }
+        if (source != target) {
+            this.code.add(new RegisterMachine.Move(target, source));
+        }
+        this.assigned[target] = true;
+    }
+
+    /**
+     * Generate the code for an expression.
+     *
+     * @param node   the expression
+     * @param target the register the value should go in, or -1 if any
+     *               register will do
+     * @return the register that holds the value; this is not always the
+     * target, e.g. for a variable or a constant
+     */
+    private int generate(ExpressionNode node, int target) {
+        if (this.unreachable) {
+            return -1;
+        }
+        if (node instanceof Constant) {
+            return this.constants.get(((Constant) node).getValue());
+        } else if (node instanceof Variable) {
+            String name = ((Variable) node).getName();
+            int register = this.variables.get(name);
+            if (!this.assigned[register]) {
+                this.code.add(new RegisterMachine.Fail(Errors.Type.UNINITIALIZED, name + " is not initialized"));
+                this.unreachable = true;
+            }
+            return register;
+        } else if (node instanceof SharedExpression) {
+            SharedExpression shared = (SharedExpression) node;
+            int register = this.variables.get(shared.getName());
+            store(register, generate(shared.getExpression(), register));
+            return register;
+        }
+
+        int mark = this.nextScratch;
+        int result;
+        RegisterMachine.Instruction instr;
+        if (node instanceof BinaryOperation) {
+            BinaryOperation binary = (BinaryOperation) node;
+            int left = generate(binary.getLeftChild(), -1);
+            int right = generate(binary.getRightChild(), -1);
+            this.nextScratch = mark;
+            result = target >= 0 ? target : scratch();
+            switch (binary.getOperator()) {
+                case BinaryOperation.ADD:
+                    instr = new RegisterMachine.Add(result, left, right);
+                    break;
+                case BinaryOperation.SUB:
+                    instr = new RegisterMachine.Subtract(result, left, right);
+                    break;
+                case BinaryOperation.MUL:
+                    instr = new RegisterMachine.Multiply(result, left, right);
+                    break;
+                default:
+                    instr = new RegisterMachine.Divide(result, left, right);
+                    break;
+            }
+        } else {
+            UnaryOperation unary = (UnaryOperation) node;
+            int operand = generate(unary.getExpression(), -1);
+            this.nextScratch = mark;
+            result = target >= 0 ? target : scratch();
+            if (unary.getOperator().equals(UnaryOperation.NEG)) {
+                instr = new RegisterMachine.Negate(result, operand);
+            } else {
+                instr = new RegisterMachine.SquareRoot(result, operand);
+            }
+        }
+        if (this.unreachable) {
+            return -1;
+        }
+        this.code.add(instr);
+        return result;
+    }
+
+    /**
+     * Take the next free scratch register.
+     */
+    private int scratch() {
+        int register = this.nextScratch++;
+        if (this.nextScratch > this.registerCount) {
+            this.registerCount = this.nextScratch;
+        }
+        return register;
+    }
+}
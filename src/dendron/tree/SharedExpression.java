@@ -0,0 +1,106 @@
+package dendron.tree;
+
+import dendron.machine.Machine;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * An expression whose value is also kept in a compiler temporary so that
+ * later copies of the same expression can read the temporary instead of
+ * computing it again. It is created by common subexpression elimination,
+ * never by the parser.
+ * <p>
+ * Temporary names start with {@link #TEMPORARY_PREFIX}, which cannot
+ * begin a Dendron variable name, so they never clash with the program's
+ * own variables and are left out of symbol table dumps.
+ *
+ * @author Pedro Breton
+ */
+public class SharedExpression implements ExpressionNode {
+    /**
+     * The first character of every compiler temporary's name
+     */
+    public static final String TEMPORARY_PREFIX = "$";
+
+    private final String name;
+    private final ExpressionNode expr;
+    private final int height;
+
+    /**
+     * Create a new SharedExpression node.
+     * @param name the name of the temporary that keeps the value
+     * @param expr the expression being shared
+     */
+    public SharedExpression(String name, ExpressionNode expr) {
+        this.name = name;
+        this.expr = expr;
+        this.height = 1 + Expressions.heightOf(expr);
+    }
+
+    /**
+     * @return the name of the temporary that keeps the value
+     */
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the expression being shared
+     */
+    ExpressionNode getExpression() {
+        return this.expr;
+    }
+
+    /**
+     * @return the height of the tree rooted here
+     */
+    int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Evaluate the expression and remember its value in the temporary.
+     * @param symTab symbol table, where the temporary is kept
+     * @return the value of the expression
+     */
+    @Override
+    public int evaluate(Map<String, Integer> symTab) {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            return Expressions.evaluate(this, symTab);
+        }
+        int value = this.expr.evaluate(symTab);
+        symTab.put(this.name, value);
+        return value;
+    }
+
+    /**
+     * Print the expression, marked with the name of its temporary.
+     */
+    @Override
+    public void infixDisplay() {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            Expressions.infixDisplay(this);
+            return;
+        }
+        System.out.printf("[%s = ", this.name);
+        this.expr.infixDisplay();
+        System.out.print("]");
+    }
+
+    /**
+     * Emit the expression's instructions, then copy the result into the temporary
+     * while leaving it on the stack.
+     * @param code where the instructions go: the expression's, followed by DUP and a STORE
+     */
+    @Override
+    public void emit(Consumer<Machine.Instruction> code) {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            Expressions.emit(this, code);
+            return;
+        }
+        this.expr.emit(code);
+        code.accept(new Machine.Duplicate());
+        code.accept(new Machine.Store(this.name));
+    }
+}
@@ -0,0 +1,342 @@
+package dendron.tree;
+
+import dendron.DendronException;
+import dendron.OutputSink;
+import dendron.SourcePosition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The data dependencies between the statements of a program, used to
+ * run statements that do not depend on one another at the same time.
+ * <p>
+ * A statement depends on the statements that last wrote, before it,
+ * each variable it reads. Every statement computes into a table of its
+ * own, seeded with the values it reads, so a statement that writes a
+ * variable never has to wait for earlier statements that read or write
+ * it; only true read-after-write order is kept. The levels of the graph
+ * are run one after another, and the statements within a level run in
+ * parallel in a {@link ForkJoinPool}.
+ * <p>
+ * Results are committed in program order: prints are shown and values
+ * are stored in the caller's symbol table only once every statement
+ * before them has been committed. So the output, the final symbol table,
+ * and the error reported if a statement fails are the same as running
+ * the statements one after another gives.
+ *
+ * @author Pedro Breton
+ */
+public final class StatementGraph {
+
+    /**
+     * The most statements one task runs
+     */
+    private static final int GRAIN = 256;
+
+    private final int size;
+    private final boolean[] prints;
+    private final ExpressionNode[] expressions;
+    private final SourcePosition[] positions;
+    private final String[][] reads;
+    private final int[][] producers;
+    private final String[][] writes;
+
+    private final int[] byLevel;
+    private final int[] levelStarts;
+    private final int width;
+
+    /**
+     * Work out the dependencies of a program's statements.
+     *
+     * @param program a program made of assignments and prints
+     * @throws IllegalArgumentException if the program has some other
+     *                                  kind of statement
+     */
+    StatementGraph(Program program) {
+        List<ActionNode> actions = program.getActions();
+        this.size = actions.size();
+        this.prints = new boolean[this.size];
+        this.expressions = new ExpressionNode[this.size];
+        this.positions = program.getPositions().toArray(new SourcePosition[0]);
+        this.reads = new String[this.size][];
+        this.producers = new int[this.size][];
+        this.writes = new String[this.size][];
+
+        Map<String, Integer> lastWriter = new HashMap<>();
+        int[] level = new int[this.size];
+        int depth = 0;
+        int i = 0;
+        for (ActionNode action : actions) {
+            if (!(action instanceof Assignment) && !(action instanceof Print)) {
+                throw new IllegalArgumentException("cannot schedule statement " + action.getClass().getSimpleName());
+            }
+            ExpressionNode expr = Nodes.expressionOf(action);
+            this.prints[i] = action instanceof Print;
+            this.expressions[i] = expr;
+
+            Set<String> used = new LinkedHashSet<>();
+            variablesIn(expr, used);
+            this.reads[i] = used.toArray(new String[0]);
+            this.producers[i] = new int[this.reads[i].length];
+            for (int r = 0; r < this.reads[i].length; ++r) {
+                Integer writer = lastWriter.get(this.reads[i][r]);
+                this.producers[i][r] = writer == null ? -1 : writer;
+                if (writer != null) {
+                    level[i] = Math.max(level[i], level[writer] + 1);
+                }
+            }
+            depth = Math.max(depth, level[i] + 1);
+
+            List<String> written = new ArrayList<>();
+            temporariesIn(expr, written);
+            if (action instanceof Assignment) {
+                written.add(((Assignment) action).getName());
+            }
+            this.writes[i] = written.toArray(new String[0]);
+            for (String name : this.writes[i]) {
+                lastWriter.put(name, i);
+            }
+            ++i;
+        }
+
+        // Sort the statements by level, keeping program order within one.
+        this.levelStarts = new int[depth + 1];
+        for (int s = 0; s < this.size; ++s) {
+            ++this.levelStarts[level[s] + 1];
+        }
+        int widest = 0;
+        for (int l = 0; l < depth; ++l) {
+            widest = Math.max(widest, this.levelStarts[l + 1]);
+            this.levelStarts[l + 1] += this.levelStarts[l];
+        }
+        this.width = widest;
+        this.byLevel = new int[this.size];
+        int[] next = this.levelStarts.clone();
+        for (int s = 0; s < this.size; ++s) {
+            this.byLevel[next[level[s]]++] = s;
+        }
+    }
+
+    /**
+     * @return the number of statements in the program
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the most statements that can run at the same time, which
+     * is the number in the largest level of the graph
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * @return the length, in statements, of the longest chain of
+     * statements that each need a value from the one before. No schedule
+     * can run the program in fewer steps.
+     */
+    public int getCriticalPathLength() {
+        return this.levelStarts.length - 1;
+    }
+
+    /**
+     * Run the program, running the statements of each level of the
+     * graph in parallel, and showing what it prints on standard output.
+     *
+     * @param symTab the table where variable values are stored
+     * @param pool   the threads to run statements on
+     * @throws DendronException if a statement fails; it is the error the
+     *                          first failing statement in program order
+     *                          gives, and carries that statement's position
+     */
+    public void execute(Map<String, Integer> symTab, ForkJoinPool pool) {
+        OutputSink output = OutputSink.console(Print.PREFIX);
+        try {
+            execute(symTab, pool, output);
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Run the program, running the statements of each level of the
+     * graph in parallel. Printed values are handed to the output by the
+     * calling thread, in program order.
+     *
+     * @param symTab the table where variable values are stored
+     * @param pool   the threads to run statements on
+     * @param output where printed values go; it is not flushed here
+     * @throws DendronException if a statement fails; it is the error the
+     *                          first failing statement in program order
+     *                          gives, and carries that statement's position
+     */
+    public void execute(Map<String, Integer> symTab, ForkJoinPool pool, OutputSink output) {
+        new Run(symTab, output).execute(pool);
+    }
+
+    /**
+     * The state of one run of the program
+     */
+    private final class Run {
+        private final Map<String, Integer> symTab;
+        private final OutputSink output;
+        private final List<Map<String, Integer>> results;
+        private final int[] values;
+        private final DendronException[] errors;
+        private final AtomicInteger firstError;
+        private int committed;
+
+        Run(Map<String, Integer> symTab, OutputSink output) {
+            this.symTab = symTab;
+            this.output = output;
+            this.results = new ArrayList<>(Collections.nCopies(StatementGraph.this.size, null));
+            this.values = new int[StatementGraph.this.size];
+            this.errors = new DendronException[StatementGraph.this.size];
+            this.firstError = new AtomicInteger(StatementGraph.this.size);
+        }
+
+        void execute(ForkJoinPool pool) {
+            int[] starts = StatementGraph.this.levelStarts;
+            for (int l = 0; l + 1 < starts.length && this.committed < StatementGraph.this.size; ++l) {
+                pool.invoke(new Level(this, StatementGraph.this.byLevel, starts[l], starts[l + 1]));
+                commit();
+            }
+        }
+
+        /**
+         * Run one statement against a table of its own, seeded with the
+         * values of the variables it reads. The symbol table is only
+         * read, for variables no earlier statement writes, and nothing
+         * writes it while a level is running. Statements after one that
+         * has failed are not run at all.
+         */
+        void run(int s) {
+            if (s > this.firstError.get()) {
+                return;
+            }
+            Map<String, Integer> local = new HashMap<>();
+            String[] names = StatementGraph.this.reads[s];
+            int[] from = StatementGraph.this.producers[s];
+            for (int r = 0; r < names.length; ++r) {
+                Integer value = from[r] < 0 ? this.symTab.get(names[r]) : this.results.get(from[r]).get(names[r]);
+                if (value != null) {
+                    local.put(names[r], value);
+                }
+            }
+            this.results.set(s, local);
+            try {
+                int value = StatementGraph.this.expressions[s].evaluate(local);
+                this.values[s] = value;
+                if (!StatementGraph.this.prints[s]) {
+                    local.put(last(StatementGraph.this.writes[s]), value);
+                }
+            } catch (DendronException e) {
+                this.errors[s] = e;
+                this.firstError.accumulateAndGet(s, Math::min);
+            }
+        }
+
+        /**
+         * Commit, in program order, the statements that have run, as far
+         * as the first one that has not. A statement that failed still
+         * commits whatever it wrote before failing, as it would have
+         * when run on its own.
+         *
+         * @throws DendronException if the next statement to commit failed
+         */
+        void commit() {
+            while (this.committed < StatementGraph.this.size) {
+                int s = this.committed;
+                Map<String, Integer> local = this.results.get(s);
+                if (local == null) {
+                    return;
+                }
+                for (String name : StatementGraph.this.writes[s]) {
+                    Integer value = local.get(name);
+                    if (value != null) {
+                        this.symTab.put(name, value);
+                    }
+                }
+                if (this.errors[s] != null) {
+                    throw this.errors[s].locate(StatementGraph.this.positions[s]);
+                }
+                if (StatementGraph.this.prints[s]) {
+                    this.output.accept(this.values[s]);
+                }
+                ++this.committed;
+            }
+        }
+    }
+
+    private static String last(String[] names) {
+        return names[names.length - 1];
+    }
+
+    /**
+     * Run the statements at a range of places in the by-level order,
+     * splitting the range until it is small enough for one task.
+     */
+    private static final class Level extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final int[] order;
+        private final int from;
+        private final int to;
+
+        Level(Run run, int[] order, int from, int to) {
+            this.run = run;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= GRAIN) {
+                for (int i = this.from; i < this.to; ++i) {
+                    this.run.run(this.order[i]);
+                }
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new Level(this.run, this.order, this.from, middle),
+                        new Level(this.run, this.order, middle, this.to));
+            }
+        }
+    }
+
+    /**
+     * Collect the names of all variables and temporaries an expression
+     * reads.
+     */
+    private static void variablesIn(ExpressionNode expr, Set<String> names) {
+        Expressions.forEachNode(expr, node -> {
+            if (node instanceof Variable) {
+                names.add(((Variable) node).getName());
+            }
+        });
+    }
+
+    /**
+     * Collect the names of the compiler temporaries an expression sets,
+     * in the order it sets them.
+     */
+    private static void temporariesIn(ExpressionNode expr, List<String> names) {
+        Expressions.forEachNode(expr, node -> {
+            if (node instanceof SharedExpression) {
+                names.add(((SharedExpression) node).getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,184 @@
+package dendron.tree;
+
+import dendron.DendronSyntaxException;
+import dendron.Errors;
+import dendron.Lexer;
+import dendron.SourcePosition;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Parses a program one statement at a time from a {@link Lexer}.
+ * <p>
+ * A statement runs from a ":=" or "@" token up to the next one. Its
+ * tokens are collected, then read from right to left: operands are
+ * pushed onto a stack and each operator takes what it needs off it.
+ * Only the current statement is held, so parsing a program of any
+ * length needs only as much memory as its largest statement.
+ *
+ * @author Pedro Breton
+ */
+final class StatementParser {
+
+    private final Lexer lexer;
+    private boolean started;
+
+    private Lexer.Kind[] kinds = new Lexer.Kind[16];
+    private int[] values = new int[16];
+    private String[] texts = new String[16];
+    private int[] indexes = new int[16];
+    private int[] lines = new int[16];
+    private int[] columns = new int[16];
+    private int size;
+
+    private final Deque<ExpressionNode> stack = new ArrayDeque<>();
+    private SourcePosition position;
+
+    /**
+     * Set up a parser that reads from the lexer's next token onwards.
+     *
+     * @param lexer the source of the tokens
+     */
+    StatementParser(Lexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Parse the next statement.
+     *
+     * @return the statement, or null if there are no more
+     * @throws DendronSyntaxException if the statement is not well formed
+     */
+    ActionNode next() {
+        if (!this.started) {
+            this.started = true;
+            this.lexer.next();
+        }
+        if (this.lexer.kind() == null) {
+            return null;
+        }
+        if (!this.lexer.kind().startsStatement()) {
+            throw new DendronSyntaxException(Errors.Type.UNKNOWN_STATEMENT,
+                    this.lexer.text(), this.lexer.position());
+        }
+        this.size = 0;
+        do {
+            add();
+        } while (this.lexer.next() && !this.lexer.kind().startsStatement());
+        this.position = where(0);
+        return parse();
+    }
+
+    /**
+     * @return the position of the first token of the statement last
+     * returned by {@link #next()}
+     */
+    SourcePosition position() {
+        return this.position;
+    }
+
+    /**
+     * Copy the lexer's current token into the statement buffer.
+     */
+    private void add() {
+        if (this.size == this.kinds.length) {
+            int capacity = 2 * this.size;
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+            this.texts = Arrays.copyOf(this.texts, capacity);
+            this.indexes = Arrays.copyOf(this.indexes, capacity);
+            this.lines = Arrays.copyOf(this.lines, capacity);
+            this.columns = Arrays.copyOf(this.columns, capacity);
+        }
+        Lexer.Kind kind = this.lexer.kind();
+        int i = this.size++;
+        this.kinds[i] = kind;
+        // Only names, and numbers too big for an int, need their text.
+        if (kind == Lexer.Kind.IDENTIFIER || (kind == Lexer.Kind.INTEGER && !this.lexer.isInRange())) {
+            this.texts[i] = this.lexer.text();
+        } else {
+            this.texts[i] = null;
+            this.values[i] = this.lexer.intValue();
+        }
+        this.indexes[i] = this.lexer.tokenIndex();
+        this.lines[i] = this.lexer.line();
+        this.columns[i] = this.lexer.column();
+    }
+
+    /**
+     * @return the position of a token of the statement
+     */
+    private SourcePosition where(int i) {
+        return this.lines[i] > 0
+                ? SourcePosition.of(this.indexes[i], this.lines[i], this.columns[i])
+                : SourcePosition.ofToken(this.indexes[i]);
+    }
+
+    /**
+     * Build the tree for the statement in the buffer, reading its
+     * tokens from right to left.
+     */
+    private ActionNode parse() {
+        this.stack.clear();
+        for (int i = this.size - 1; i > 0; i--) {
+            switch (this.kinds[i]) {
+                case ADD:
+                case SUBTRACT:
+                case MULTIPLY:
+                case DIVIDE:
+                    ExpressionNode left = pop(i);
+                    this.stack.push(new BinaryOperation(this.kinds[i].getSymbol(), left, pop(i)));
+                    break;
+                case NEGATE:
+                case SQUARE_ROOT:
+                    this.stack.push(new UnaryOperation(this.kinds[i].getSymbol(), pop(i)));
+                    break;
+                case IDENTIFIER:
+                    this.stack.push(new Variable(this.texts[i]));
+                    break;
+                case INTEGER:
+                    if (this.texts[i] != null) {
+                        throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE, this.texts[i], where(i));
+                    }
+                    this.stack.push(new Constant(this.values[i]));
+                    break;
+                default:
+                    throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE,
+                            "Not a valid Expression", where(i));
+            }
+        }
+
+        ActionNode statement;
+        if (this.kinds[0] == Lexer.Kind.ASSIGN) {
+            ExpressionNode target = pop(0);
+            if (!(target instanceof Variable)) {
+                throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE,
+                        "assignment target must be a variable", this.position);
+            }
+            statement = new Assignment(((Variable) target).getName(), pop(0));
+        } else {
+            statement = new Print(pop(0));
+        }
+        if (!this.stack.isEmpty()) {
+            this.stack.clear();
+            throw new DendronSyntaxException(Errors.Type.EXTRA_TOKENS, null, this.position);
+        }
+        return statement;
+    }
+
+    /**
+     * Take the next operand off the parsing stack.
+     *
+     * @param i the buffer index of the token that needs the operand
+     * @return the operand
+     * @throws DendronSyntaxException if the statement has run out of operands
+     */
+    private ExpressionNode pop(int i) {
+        if (this.stack.isEmpty()) {
+            throw new DendronSyntaxException(Errors.Type.PREMATURE_END, null, where(i));
+        }
+        return this.stack.pop();
+    }
+}
@@ -1,9 +1,12 @@
 package dendron.tree;
 
+import dendron.DendronRuntimeException;
+import dendron.DendronSyntaxException;
 import dendron.Errors;
 import dendron.machine.Machine;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * A calculation represented by a unary operator and its operand.
@@ -16,6 +19,7 @@ public class UnaryOperation implements ExpressionNode {
 
     private String operator;
     private ExpressionNode expr;
+    private final int height;
 
     /**
      * Create a new UnaryOperation node.
@@ -27,11 +31,34 @@ public class UnaryOperation implements ExpressionNode {
         if (OPERATORS.contains(operator)) {
             this.operator = operator;
             this.expr = expr;
+            this.height = 1 + Expressions.heightOf(expr);
         } else {
-            Errors.report(Errors.Type.ILLEGAL_VALUE, String.format("%s is not a valid operator", operator));
+            throw new DendronSyntaxException(Errors.Type.ILLEGAL_VALUE,
+                    String.format("%s is not a valid operator", operator), null);
         }
     }
 
+    /**
+     * @return the string rep. of the operation
+     */
+    String getOperator() {
+        return this.operator;
+    }
+
+    /**
+     * @return the operand
+     */
+    ExpressionNode getExpression() {
+        return this.expr;
+    }
+
+    /**
+     * @return the height of the tree rooted here
+     */
+    int getHeight() {
+        return this.height;
+    }
+
     /**
      * Compute the result of evaluating the expression and applying the operator to it.
      * @param symTab symbol table, if needed, to fetch variable values
@@ -39,20 +66,31 @@ public class UnaryOperation implements ExpressionNode {
      */
     @Override
     public int evaluate(Map<String, Integer> symTab) {
-        switch (this.operator) {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            return Expressions.evaluate(this, symTab);
+        }
+        return apply(this.operator, this.expr.evaluate(symTab));
+    }
+
+    /**
+     * Apply an operator to a value.
+     * @param operator the string rep. of the operation
+     * @param eval the operand's value
+     * @return the result of the computation
+     */
+    static int apply(String operator, int eval) {
+        switch (operator) {
             case NEG:
-                return -1 * this.expr.evaluate(symTab);
+                return -eval;
             case SQRT:
-                int eval = this.expr.evaluate(symTab);
-
-                if (eval >= 0){
-                    return (int) Math.sqrt(this.expr.evaluate(symTab));
-                } else{
-                    Errors.report(Errors.Type.ILLEGAL_VALUE,"Negative root");
+                if (eval >= 0) {
+                    return (int) Math.sqrt(eval);
+                } else {
+                    throw new DendronRuntimeException(Errors.Type.ILLEGAL_VALUE, "Negative root");
                 }
-
+            default:
+                return 0;
         }
-        return 0;
     }
 
     /**
@@ -60,6 +98,10 @@ public class UnaryOperation implements ExpressionNode {
      */
     @Override
     public void infixDisplay() {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            Expressions.infixDisplay(this);
+            return;
+        }
         System.out.printf("%s", this.operator);
         this.expr.infixDisplay();
 
@@ -69,20 +111,29 @@ public class UnaryOperation implements ExpressionNode {
      * Emit the Machine instructions necessary to perform the computation of this UnaryOperation.
      * The operator itself is realized by an instruction that pops a value off the stack, applies the operator,
      * and pushes the answer.
-     * @return a list containing instructions for the expression and the instruction to perform the operation
+     * @param code where the instructions go: those for the expression and the instruction to perform
+     * the operation
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> list = new ArrayList<>();
-        list.addAll(this.expr.emit());
-        switch (this.operator) {
-            case NEG:
-                list.add(new Machine.Negate());
-                break;
-            case SQRT:
-                list.add(new Machine.SquareRoot());
-                break;
+    public void emit(Consumer<Machine.Instruction> code) {
+        if (this.height > Expressions.RECURSION_LIMIT) {
+            Expressions.emit(this, code);
+            return;
+        }
+        this.expr.emit(code);
+        code.accept(instruction(this.operator));
+    }
+
+    /**
+     * Get the Machine instruction that performs an operation.
+     * @param operator the string rep. of the operation
+     * @return an instruction that pops a value off the stack, applies the operator,
+     * and pushes the answer
+     */
+    static Machine.Instruction instruction(String operator) {
+        if (NEG.equals(operator)) {
+            return new Machine.Negate();
         }
-        return list;
+        return new Machine.SquareRoot();
     }
 }
@@ -1,11 +1,11 @@
 package dendron.tree;
 
+import dendron.DendronRuntimeException;
 import dendron.Errors;
 import dendron.machine.Machine;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * The ExpressionNode for a simple variable
@@ -32,17 +32,18 @@ public class Variable implements ExpressionNode {
     }
 
     /**
-     *
+     * Fetch the variable's value from the symbol table.
      * @param symTab symbol table, if needed, to fetch variable values
-     * @return
+     * @return the variable's current value
+     * @throws DendronRuntimeException if the variable has not been given a value
      */
     @Override
     public int evaluate(Map<String, Integer> symTab) {
-        if (symTab.containsKey(this.name)){
-            return symTab.get(this.name);
+        Integer value = symTab.get(this.name);
+        if (value != null) {
+            return value;
         } else {
-            Errors.report(Errors.Type.PREMATURE_END, "Reach premature end");
-            return -1;
+            throw new DendronRuntimeException(Errors.Type.UNINITIALIZED, this.name + " is not initialized");
         }
 
     }
@@ -58,12 +59,10 @@ public class Variable implements ExpressionNode {
 
     /**
      * Emit a LOAD instruction that pushes the Variable's value onto the stack.
-     * @return a list containing a single LOAD instruction and the expression's emit instructions
+     * @param code where the single LOAD instruction goes
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> list = new ArrayList<>();
-        list.add(new Machine.Load(this.name));
-        return list;
+    public void emit(Consumer<Machine.Instruction> code) {
+        code.accept(new Machine.Load(this.name));
     }
 }